@@ -0,0 +1,27 @@
+package org.atlasapi.media;
+
+import org.atlasapi.media.content.BroadcastBoostScript;
+import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.script.ScriptModule;
+
+/**
+ * Registers the native scripts used by content searches. Loaded through
+ * es-plugin.properties so it must be on the classpath of, or installed as
+ * a plugin on, every data node.
+ */
+public class AtlasScriptsPlugin extends AbstractPlugin {
+
+    @Override
+    public String name() {
+        return "atlas-scripts";
+    }
+
+    @Override
+    public String description() {
+        return "Native scoring scripts for Atlas content searches";
+    }
+
+    public void onModule(ScriptModule module) {
+        module.registerScript(BroadcastBoostScript.NAME, BroadcastBoostScript.Factory.class);
+    }
+}
@@ -6,17 +6,24 @@ import org.atlasapi.media.content.EsContentIndex;
 import org.atlasapi.media.content.EsContentIndexer;
 import org.atlasapi.media.content.EsContentSearcher;
 import org.atlasapi.media.content.schedule.EsScheduleIndex;
+import org.atlasapi.media.content.schedule.EsScheduleIndexLifecycle;
+import org.atlasapi.media.content.schedule.EsScheduleIndexLifecycle.Retirement;
+import org.atlasapi.media.content.schedule.EsScheduleIndexNames;
+import org.atlasapi.media.content.schedule.EsScheduleIndexRegistry;
+import org.atlasapi.media.content.schedule.ScheduleDayCache;
 import org.atlasapi.media.topic.EsPopularTopicIndex;
 import org.atlasapi.media.topic.EsTopicIndex;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.Service.State;
+import com.metabroadcast.common.caching.BackgroundTask;
 import com.metabroadcast.common.time.SystemClock;
 
 public class ElasticSearchContentIndexModule {
@@ -27,18 +34,51 @@ public class ElasticSearchContentIndexModule {
     private final EsTopicIndex topicIndex;
     private final EsPopularTopicIndex popularTopicsIndex;
     private final EsContentSearcher contentSearcher;
+    private final BackgroundTask scheduleIndexLifecycle;
 
+    /**
+     * The schedule index lifecycle only logs what it would optimize and
+     * retire.
+     */
     public ElasticSearchContentIndexModule(String seeds, long requestTimeout) {
+        this(seeds, requestTimeout, Retirement.CLOSE, true);
+    }
+
+    /**
+     * @param retirement
+     *            whether schedule indices past their lookback are closed or
+     *            deleted.
+     * @param lifecycleDryRun
+     *            if true, the schedule index lifecycle only logs what it
+     *            would optimize and retire.
+     */
+    public ElasticSearchContentIndexModule(String seeds, long requestTimeout, Retirement retirement, 
+            boolean lifecycleDryRun) {
         Node index = NodeBuilder.nodeBuilder().client(true).
                 clusterName(EsSchema.CLUSTER_NAME).
                 settings(ImmutableSettings.settingsBuilder().put("discovery.zen.ping.unicast.hosts", seeds)).
                 build().start();
-        this.contentIndexer = new EsContentIndexer(index, new SystemClock(), requestTimeout);
+        SystemClock clock = new SystemClock();
+        EsScheduleIndexRegistry scheduleIndices = new EsScheduleIndexRegistry(
+            new EsScheduleIndexNames(index, clock));
+        ScheduleDayCache scheduleCache = new ScheduleDayCache(clock, 10000, 5, TimeUnit.MINUTES);
+        this.contentIndexer = EsContentIndexer.builder(index)
+            .withClock(clock)
+            .withRequestTimeout(requestTimeout)
+            .withScheduleIndices(scheduleIndices)
+            .withScheduleCache(scheduleCache)
+            .build();
         this.contentIndex = new EsContentIndex(index, EsSchema.INDEX_NAME);
-        this.scheduleIndex = new EsScheduleIndex(index, new SystemClock());
+        this.scheduleIndex = EsScheduleIndex.builder(index)
+            .withClock(clock)
+            .withScheduleIndices(scheduleIndices)
+            .withScheduleCache(scheduleCache)
+            .build();
         this.popularTopicsIndex = new EsPopularTopicIndex(index);
         this.topicIndex = new EsTopicIndex(index, "topics", 60, TimeUnit.SECONDS);
-        this.contentSearcher = new EsContentSearcher(index);
+        this.contentSearcher = new EsContentSearcher(index, 30, TimeUnit.SECONDS, 10000, clock);
+        this.scheduleIndexLifecycle = new BackgroundTask(Duration.standardDays(1), 
+            new EsScheduleIndexLifecycle(index, clock, scheduleIndices, retirement, lifecycleDryRun));
     }
 
     public void init() {
@@ -49,6 +89,7 @@ public class ElasticSearchContentIndexModule {
             @Override
             public void onSuccess(State result) {
                 log.info("Started index module");
+                scheduleIndexLifecycle.start();
             }
 
             @Override
@@ -1,17 +1,30 @@
 package org.atlasapi.media.content;
 
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 
 public class AvailabilityQueryBuilder {
 
+    private static final long ONE_MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    /* Matches content available at the minute containing when, using the
+     * top-level availability window, or the nested locations of documents
+     * indexed before that was, with the minute as bound so the filter can be
+     * cached. Matching content is scored by boost alone.
+     */
     public static QueryBuilder build(Date when, float boost) {
-        return QueryBuilders.nestedQuery(EsContent.LOCATIONS,
-                QueryBuilders.customBoostFactorQuery(
-                QueryBuilders.boolQuery().
-                must(QueryBuilders.rangeQuery(EsLocation.AVAILABILITY_TIME).gte(when)).
-                must(QueryBuilders.rangeQuery(EsLocation.AVAILABILITY_END_TIME).lt(when))).
-                boostFactor(boost));
+        long minute = when.getTime() - when.getTime() % ONE_MINUTE;
+        return QueryBuilders.constantScoreQuery(FilterBuilders.orFilter(
+                FilterBuilders.andFilter(
+                    FilterBuilders.rangeFilter(EsContent.AVAILABILITY_START).lte(minute),
+                    FilterBuilders.rangeFilter(EsContent.AVAILABILITY_END).gt(minute)),
+                FilterBuilders.nestedFilter(EsContent.LOCATIONS, FilterBuilders.andFilter(
+                    FilterBuilders.rangeFilter(EsLocation.AVAILABILITY_TIME).lte(minute),
+                    FilterBuilders.rangeFilter(EsLocation.AVAILABILITY_END_TIME).gt(minute)))).
+                cache(true)).
+                boost(boost);
     }
 }
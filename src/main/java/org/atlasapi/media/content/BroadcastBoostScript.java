@@ -0,0 +1,111 @@
+package org.atlasapi.media.content;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.field.data.longs.LongDocFieldData;
+import org.elasticsearch.script.AbstractFloatSearchScript;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.NativeScriptFactory;
+
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.SystemClock;
+
+/**
+ * Boosts content by how close its nearest broadcast is to now, and further
+ * if any broadcast is a first run. Reads the sorted transmission times and
+ * earliest first run indexed as top-level fields of each document from
+ * field data instead of parsing the nested broadcasts from the source.
+ */
+public class BroadcastBoostScript extends AbstractFloatSearchScript {
+
+    public static final String NAME = "broadcastBoost";
+
+    public static final String NOW = "now";
+    public static final String TIME_BOOST = "timeBoost";
+    public static final String FIRST_BROADCAST_BOOST = "firstBroadcastBoost";
+    public static final String ONE_WEEK = "oneWeek";
+
+    public static class Factory implements NativeScriptFactory {
+
+        private final Clock clock;
+
+        /* Scripts are registered by class, so must be constructible without
+         * arguments.
+         */
+        public Factory() {
+            this(new SystemClock());
+        }
+
+        public Factory(Clock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public ExecutableScript newScript(@Nullable Map<String, Object> params) {
+            return new BroadcastBoostScript(
+                XContentMapValues.nodeLongValue(param(params, NOW), clock.now().getMillis()),
+                XContentMapValues.nodeFloatValue(param(params, TIME_BOOST), 1f),
+                XContentMapValues.nodeFloatValue(param(params, FIRST_BROADCAST_BOOST), 1f),
+                XContentMapValues.nodeLongValue(param(params, ONE_WEEK), 7L * 24 * 60 * 60 * 1000)
+            );
+        }
+
+        private Object param(@Nullable Map<String, Object> params, String name) {
+            return params != null ? params.get(name) : null;
+        }
+    }
+
+    private final long now;
+    private final float timeBoost;
+    private final float firstBroadcastBoost;
+    private final long oneWeek;
+
+    public BroadcastBoostScript(long now, float timeBoost, float firstBroadcastBoost, long oneWeek) {
+        this.now = now;
+        this.timeBoost = timeBoost;
+        this.firstBroadcastBoost = firstBroadcastBoost;
+        this.oneWeek = oneWeek;
+    }
+
+    @Override
+    public float runAsFloat() {
+        LongDocFieldData times = docFieldLongs(EsContent.TRANSMISSION_TIMES);
+        if (times.isEmpty()) {
+            return score();
+        }
+        boolean firstRun = !docFieldLongs(EsContent.EARLIEST_FIRST_RUN_TIME).isEmpty();
+        return boost(score(), nearest(times.getValues(), now), 
+            firstRun ? firstBroadcastBoost : 1f, timeBoost, oneWeek);
+    }
+
+    /* Field data values are in ascending order, so the nearest time is
+     * either side of where now would be inserted.
+     */
+    static long nearest(long[] sortedTimes, long now) {
+        int index = Arrays.binarySearch(sortedTimes, now);
+        if (index >= 0) {
+            return 0;
+        }
+        int next = -index - 1;
+        long nearest = Long.MAX_VALUE;
+        if (next < sortedTimes.length) {
+            nearest = sortedTimes[next] - now;
+        }
+        if (next > 0) {
+            nearest = Math.min(nearest, now - sortedTimes[next - 1]);
+        }
+        return nearest;
+    }
+
+    /* As the MVEL script this replaced: broadcasts within a week decay
+     * 50 times slower.
+     */
+    static float boost(float score, long nearest, float firstBroadcastBoost, float timeBoost, long oneWeek) {
+        double decay = 1 / (1 + (nearest / (nearest < oneWeek ? 50.0 : 1.0)));
+        return (float) (score + (score * firstBroadcastBoost * timeBoost * decay));
+    }
+}
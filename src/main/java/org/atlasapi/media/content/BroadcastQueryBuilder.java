@@ -4,28 +4,37 @@ import java.util.concurrent.TimeUnit;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.joda.time.DateTime;
+
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.SystemClock;
 
 public class BroadcastQueryBuilder {
 
+    private static final long ONE_MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long THIRTY_DAYS = TimeUnit.DAYS.toMillis(30);
+
     public static QueryBuilder build(QueryBuilder childQuery, float timeBoost, float firstBroadcastBoost) {
+        return build(childQuery, timeBoost, firstBroadcastBoost, new SystemClock());
+    }
+
+    /* The range filter is over the top-level transmission times, or the
+     * nested broadcasts of documents indexed before those were, with bounds
+     * rounded to the minute so it can be cached. Scoring is done by the
+     * native BroadcastBoostScript.
+     */
+    public static QueryBuilder build(QueryBuilder childQuery, float timeBoost, float firstBroadcastBoost, Clock clock) {
+        long now = clock.now().getMillis();
+        long minute = now - now % ONE_MINUTE;
         return QueryBuilders.customScoreQuery(QueryBuilders.filteredQuery(childQuery,
-                FilterBuilders.nestedFilter(EsContent.BROADCASTS,
-                FilterBuilders.rangeFilter(EsBroadcast.TRANSMISSION_TIME).from(new DateTime().minusDays(30)).to(new DateTime().plusDays(30))))).
-                param("firstBroadcastBoost", firstBroadcastBoost).
-                param("timeBoost", timeBoost).
-                param("oneWeek", TimeUnit.MILLISECONDS.convert(7, TimeUnit.DAYS)).
-                script(""
-                + "if (_source.broadcasts != null) {"
-                + "  now = time();"
-                + "  t = Long.MAX_VALUE;"
-                + "  f = 1;"
-                + "  foreach (b : _source.broadcasts) {"
-                + "    candidate = abs(now - b.transmissionTimeInMillis);"
-                + "    if (candidate < t) t = candidate;"
-                + "    if (b.repeat = false) f = firstBroadcastBoost;"
-                + "  }"
-                + "  _score + (_score * f * timeBoost * (1 / (1 + (t / (t < oneWeek ? 50 : 1)))));"
-                + "} else _score;");
+                FilterBuilders.orFilter(
+                    FilterBuilders.rangeFilter(EsContent.TRANSMISSION_TIMES).from(minute - THIRTY_DAYS).to(minute + THIRTY_DAYS),
+                    FilterBuilders.nestedFilter(EsContent.BROADCASTS,
+                        FilterBuilders.rangeFilter(EsBroadcast.TRANSMISSION_TIME).from(minute - THIRTY_DAYS).to(minute + THIRTY_DAYS))))).
+                lang("native").
+                script(BroadcastBoostScript.NAME).
+                param(BroadcastBoostScript.NOW, now).
+                param(BroadcastBoostScript.FIRST_BROADCAST_BOOST, firstBroadcastBoost).
+                param(BroadcastBoostScript.TIME_BOOST, timeBoost).
+                param(BroadcastBoostScript.ONE_WEEK, TimeUnit.MILLISECONDS.convert(7, TimeUnit.DAYS));
     }
 }
@@ -0,0 +1,90 @@
+package org.atlasapi.media.content;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded, expiring cache of the titles of indexed containers, keyed by
+ * container document id, used to denormalise parent titles onto children
+ * without fetching the container for every child.
+ */
+public class ContainerTitleCache {
+
+    private final Cache<String, ContainerTitle> titles;
+
+    public ContainerTitleCache(long maximumSize, long expireAfterWrite, TimeUnit unit) {
+        this.titles = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite, checkNotNull(unit))
+            .recordStats()
+            .build();
+    }
+
+    @Nullable
+    public ContainerTitle get(String containerId) {
+        return titles.getIfPresent(containerId);
+    }
+
+    public void put(String containerId, ContainerTitle title) {
+        titles.put(containerId, title);
+    }
+
+    public CacheStats stats() {
+        return titles.stats();
+    }
+
+    public static final class ContainerTitle {
+
+        private final String title;
+        private final String flattenedTitle;
+
+        public ContainerTitle(@Nullable String title, @Nullable String flattenedTitle) {
+            this.title = title;
+            this.flattenedTitle = flattenedTitle;
+        }
+
+        @Nullable
+        public String getTitle() {
+            return title;
+        }
+
+        @Nullable
+        public String getFlattenedTitle() {
+            return flattenedTitle;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (this == that) {
+                return true;
+            }
+            if (that instanceof ContainerTitle) {
+                ContainerTitle other = (ContainerTitle) that;
+                return Objects.equal(title, other.title)
+                    && Objects.equal(flattenedTitle, other.flattenedTitle);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(title, flattenedTitle);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                .add("title", title)
+                .add("flattenedTitle", flattenedTitle)
+                .toString();
+        }
+    }
+}
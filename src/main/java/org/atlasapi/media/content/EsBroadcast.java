@@ -2,6 +2,9 @@ package org.atlasapi.media.content;
 
 import java.util.Date;
 
+import javax.annotation.Nullable;
+
+import org.atlasapi.media.content.schedule.EsScheduleEntry;
 import org.atlasapi.media.util.EsObject;
 
 public class EsBroadcast extends EsObject {
@@ -42,4 +45,22 @@ public class EsBroadcast extends EsObject {
         properties.put(REPEAT, repeat);
         return this;
     }
+
+    /**
+     * @return this broadcast encoded as an {@link EsScheduleEntry}, or null if
+     *         it has no channel.
+     */
+    @Nullable
+    public String toScheduleEntry() {
+        String channel = (String) properties.get(CHANNEL);
+        if (channel == null) {
+            return null;
+        }
+        return EsScheduleEntry.encode(
+            channel,
+            ((Date) properties.get(TRANSMISSION_TIME)).getTime(),
+            ((Date) properties.get(TRANSMISSION_END_TIME)).getTime(),
+            (String) properties.get(ID)
+        );
+    }
 }
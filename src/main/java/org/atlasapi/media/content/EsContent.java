@@ -4,8 +4,6 @@ import java.util.Collection;
 
 import org.atlasapi.media.util.EsObject;
 
-import com.google.common.collect.Iterables;
-
 /**
  */
 public class EsContent extends EsObject {
@@ -20,12 +18,20 @@ public class EsContent extends EsObject {
     public final static String FLATTENED_TITLE = "flattenedTitle";
     public final static String PARENT_TITLE = "parentTitle";
     public final static String PARENT_FLATTENED_TITLE = "parentFlattenedTitle";
+    public final static String PREFIX = "prefix";
+    public final static String PARENT_FLATTENED_TITLE_PREFIX = PARENT_FLATTENED_TITLE + "." + PREFIX;
     public final static String PUBLISHER = "publisher";
     public final static String SPECIALIZATION = "specialization";
     public final static String BROADCASTS = "broadcasts";
     public final static String LOCATIONS = "locations";
     public final static String TOPICS = "topics";
     public final static String HAS_CHILDREN = "hasChildren";
+    public final static String SCHEDULE_ENTRIES = "scheduleEntries";
+    public final static String TRANSMISSION_TIMES = "transmissionTimes";
+    public final static String EARLIEST_FIRST_RUN_TIME = "earliestFirstRunTime";
+    public final static String LATEST_FIRST_RUN_TIME = "latestFirstRunTime";
+    public final static String AVAILABILITY_START = "availabilityStart";
+    public final static String AVAILABILITY_END = "availabilityEnd";
 
     public EsContent id(long id) {
         properties.put(ID, id);
@@ -68,17 +74,17 @@ public class EsContent extends EsObject {
     }
 
     public EsContent broadcasts(Collection<EsBroadcast> broadcasts) {
-        properties.put(BROADCASTS, Iterables.transform(broadcasts, TO_MAP));
+        properties.put(BROADCASTS, broadcasts);
         return this;
     }
 
     public EsContent locations(Collection<EsLocation> locations) {
-        properties.put(LOCATIONS, Iterables.transform(locations, TO_MAP));
+        properties.put(LOCATIONS, locations);
         return this;
     }
 
     public EsContent topics(Collection<EsTopicMapping> topics) {
-        properties.put(TOPICS, Iterables.transform(topics, TO_MAP));
+        properties.put(TOPICS, topics);
         return this;
     }
     
@@ -86,4 +92,34 @@ public class EsContent extends EsObject {
         properties.put(HAS_CHILDREN, hasChildren);
         return this;
     }
+
+    public EsContent scheduleEntries(Collection<String> scheduleEntries) {
+        properties.put(SCHEDULE_ENTRIES, scheduleEntries);
+        return this;
+    }
+
+    public EsContent transmissionTimes(Collection<Long> transmissionTimes) {
+        properties.put(TRANSMISSION_TIMES, transmissionTimes);
+        return this;
+    }
+
+    public EsContent earliestFirstRunTime(Long earliestFirstRunTime) {
+        properties.put(EARLIEST_FIRST_RUN_TIME, earliestFirstRunTime);
+        return this;
+    }
+
+    public EsContent latestFirstRunTime(Long latestFirstRunTime) {
+        properties.put(LATEST_FIRST_RUN_TIME, latestFirstRunTime);
+        return this;
+    }
+
+    public EsContent availabilityStart(Long availabilityStart) {
+        properties.put(AVAILABILITY_START, availabilityStart);
+        return this;
+    }
+
+    public EsContent availabilityEnd(Long availabilityEnd) {
+        properties.put(AVAILABILITY_END, availabilityEnd);
+        return this;
+    }
 }
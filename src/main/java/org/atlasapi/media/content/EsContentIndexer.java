@@ -1,17 +1,29 @@
 package org.atlasapi.media.content;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static org.atlasapi.media.EsSchema.INDEX_NAME;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
 
 import org.atlasapi.media.content.Container;
 import org.atlasapi.media.content.Content;
+import org.atlasapi.media.content.ContainerTitleCache.ContainerTitle;
+import org.atlasapi.media.content.WrittenSchedules.ScheduleDocument;
+import org.atlasapi.media.content.WrittenSchedules.ScheduleSlot;
+import org.atlasapi.media.content.WrittenSchedules.WrittenSchedule;
 import org.atlasapi.media.entity.Broadcast;
 import org.atlasapi.media.entity.ChildRef;
 import org.atlasapi.media.entity.Encoding;
@@ -21,34 +33,56 @@ import org.atlasapi.media.entity.ParentRef;
 import org.atlasapi.media.entity.Policy;
 import org.atlasapi.media.entity.TopicRef;
 import org.atlasapi.media.entity.Version;
+import org.atlasapi.media.util.DocumentDigests;
+import org.atlasapi.media.util.EsBulkAccumulator;
 import org.atlasapi.media.util.EsPersistenceException;
+import org.atlasapi.media.util.FutureSettingActionListener;
 import org.atlasapi.media.util.Strings;
 import org.atlasapi.media.content.ContentIndexer;
 import org.atlasapi.media.content.schedule.EsScheduleIndexNames;
+import org.atlasapi.media.content.schedule.EsScheduleIndex;
+import org.atlasapi.media.content.schedule.EsScheduleIndexRegistry;
+import org.atlasapi.media.content.schedule.EsScheduleLayout;
+import org.atlasapi.media.content.schedule.ScheduleDayCache;
 import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.ActionFuture;
-import org.elasticsearch.action.ActionRequest;
-import org.elasticsearch.action.NoShardAvailableActionException;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.elasticsearch.node.Node;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMap.Builder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.metabroadcast.common.time.Clock;
 import com.metabroadcast.common.time.DateTimeZones;
 import com.metabroadcast.common.time.SystemClock;
@@ -57,13 +91,29 @@ import com.metabroadcast.common.time.SystemClock;
  */
 public class EsContentIndexer extends AbstractIdleService implements ContentIndexer {
 
+    private static final int CONTAINER_TITLE_CACHE_SIZE = 10000;
+    private static final int DOCUMENT_DIGESTS_SIZE = 100000;
+    private static final int WRITTEN_SCHEDULES_SIZE = 100000;
+    static final int CHILD_FETCH_CHUNK_SIZE = 100;
+    static final int CHILD_FETCH_PARALLELISM = 4;
+    private static final String TITLE_PREFIX_FILTER = "title_prefix_ngram";
+    private static final String TITLE_PREFIX_ANALYZER = "title_prefix";
+
     private final Logger log = LoggerFactory.getLogger(EsContentIndexer.class);
     
     private final Node esClient;
+    private final Clock clock;
     private final EsScheduleIndexNames scheduleNames;
+    private final EsScheduleIndexRegistry existingIndexes;
     private final long requestTimeout;
-    
-    private Set<String> existingIndexes;
+    private final EsBulkAccumulator bulkAccumulator;
+    private final ScheduleDayCache scheduleCache;
+    private final EsScheduleLayout scheduleLayout;
+    private final DocumentDigests digests = new DocumentDigests(DOCUMENT_DIGESTS_SIZE);
+    private final WrittenSchedules writtenSchedules = new WrittenSchedules(WRITTEN_SCHEDULES_SIZE);
+    private final ContainerTitleCache containerTitles = 
+        new ContainerTitleCache(CONTAINER_TITLE_CACHE_SIZE, 10, TimeUnit.MINUTES);
+    private final ConcurrentMap<String, ListenableFuture<Void>> indexCreations = Maps.newConcurrentMap();
     
     public EsContentIndexer(Node esClient) {
         this(esClient, new SystemClock());
@@ -74,33 +124,144 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
     }
 
     public EsContentIndexer(Node esClient, Clock clock, long requestTimeout) {
-        this.esClient = esClient;
-        this.scheduleNames = new EsScheduleIndexNames(esClient, clock);
-        this.requestTimeout = requestTimeout;
+        this(builder(esClient).withClock(clock).withRequestTimeout(requestTimeout));
+    }
+
+    private EsContentIndexer(Builder builder) {
+        this.esClient = builder.esClient;
+        this.clock = builder.clock;
+        this.existingIndexes = builder.existingIndexes != null 
+            ? builder.existingIndexes 
+            : new EsScheduleIndexRegistry(new EsScheduleIndexNames(esClient, clock));
+        this.scheduleNames = existingIndexes.scheduleNames();
+        this.requestTimeout = builder.requestTimeout;
+        this.bulkAccumulator = builder.bulkAccumulator;
+        this.scheduleCache = builder.scheduleCache;
+        this.scheduleLayout = builder.scheduleLayout;
+    }
+
+    public static Builder builder(Node esClient) {
+        return new Builder(esClient);
+    }
+
+    /**
+     * Configures an {@link EsContentIndexer}. Unless set, an indexer uses a
+     * {@link SystemClock}, a 60 second request timeout, a registry of the
+     * default schedule index names, no bulk accumulator, no schedule cache
+     * and the {@link EsScheduleLayout#NESTED} layout.
+     */
+    public static final class Builder {
+
+        private final Node esClient;
+        private Clock clock = new SystemClock();
+        private long requestTimeout = 60000;
+        private EsScheduleIndexRegistry existingIndexes;
+        private EsBulkAccumulator bulkAccumulator;
+        private ScheduleDayCache scheduleCache;
+        private EsScheduleLayout scheduleLayout = EsScheduleLayout.NESTED;
+
+        private Builder(Node esClient) {
+            this.esClient = checkNotNull(esClient);
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = checkNotNull(clock);
+            return this;
+        }
+
+        public Builder withRequestTimeout(long requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /**
+         * @param existingIndexes
+         *            registry of schedule indices, updated as the indexer
+         *            creates them.
+         */
+        public Builder withScheduleIndices(EsScheduleIndexRegistry existingIndexes) {
+            this.existingIndexes = checkNotNull(existingIndexes);
+            return this;
+        }
+
+        /**
+         * @param bulkAccumulator
+         *            content is written through this accumulator, batching
+         *            writes of concurrent callers. {@link EsContentIndexer#index(Item)}
+         *            still waits for its write to complete, while
+         *            {@link EsContentIndexer#indexAsync(Item)} doesn't.
+         */
+        public Builder withBulkAccumulator(EsBulkAccumulator bulkAccumulator) {
+            this.bulkAccumulator = checkNotNull(bulkAccumulator);
+            return this;
+        }
+
+        /**
+         * @param scheduleCache
+         *            days of this cache are invalidated when broadcasts in
+         *            them are written.
+         */
+        public Builder withScheduleCache(ScheduleDayCache scheduleCache) {
+            this.scheduleCache = checkNotNull(scheduleCache);
+            return this;
+        }
+
+        /**
+         * @param scheduleLayout
+         *            how broadcasts are written to schedule indices, which
+         *            must match the layout the {@link EsScheduleIndex} reads.
+         */
+        public Builder withScheduleLayout(EsScheduleLayout scheduleLayout) {
+            this.scheduleLayout = checkNotNull(scheduleLayout);
+            return this;
+        }
+
+        public EsContentIndexer build() {
+            return new EsContentIndexer(this);
+        }
     }
 
     @Override
     protected void startUp() throws IOException {
-        if (createIndex(INDEX_NAME)) {
+        if (createIndex(INDEX_NAME, contentIndexSettings())) {
             putTopContentMapping(INDEX_NAME);
             putChildContentMapping();
         }
-        this.existingIndexes = Sets.newHashSet(scheduleNames.existingIndexNames());
-        log.info("Found existing indices {}", existingIndexes);
+        existingIndexes.reconcile();
+        log.info("Found existing indices {}", existingIndexes.existingIndices());
+        if (bulkAccumulator != null) {
+            bulkAccumulator.startAndWait();
+        }
     }
     
     @Override
     protected void shutDown() throws Exception {
-        
+        if (bulkAccumulator != null) {
+            bulkAccumulator.stopAndWait();
+        }
     }
 
     private boolean createIndex(String name) {
+        return createIndex(name, ImmutableSettings.Builder.EMPTY_SETTINGS);
+    }
+
+    private boolean createIndex(String name, Settings settings) {
         ActionFuture<IndicesExistsResponse> exists = esClient.client().admin().indices().exists(
             Requests.indicesExistsRequest(name)
         );
         if (!timeoutGet(exists).isExists()) {
             log.info("Creating index {}", name);
-            timeoutGet(esClient.client().admin().indices().create(Requests.createIndexRequest(name)));
+            try {
+                timeoutGet(esClient.client().admin().indices().create(
+                    Requests.createIndexRequest(name).settings(settings)));
+            } catch (ElasticSearchException e) {
+                if (!(ExceptionsHelper.unwrapCause(e) instanceof IndexAlreadyExistsException)) {
+                    throw e;
+                }
+                // created elsewhere since the check: its creator may not have
+                // put the mapping yet, so callers still should.
+                log.info("Index {} created concurrently", name);
+            }
             return true;
         } else {
             log.info("Index {} exists", name);
@@ -108,6 +269,22 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
         }
     }
 
+    /* Flattened titles are single tokens. The prefix analyzer indexes their
+     * leading characters as terms so the shortest prefixes, the most
+     * expensive to expand, are looked up as a single term.
+     */
+    private Settings contentIndexSettings() {
+        return ImmutableSettings.settingsBuilder()
+            .put("analysis.filter." + TITLE_PREFIX_FILTER + ".type", "edgeNGram")
+            .put("analysis.filter." + TITLE_PREFIX_FILTER + ".side", "front")
+            .put("analysis.filter." + TITLE_PREFIX_FILTER + ".min_gram", 1)
+            .put("analysis.filter." + TITLE_PREFIX_FILTER + ".max_gram", TitleQueryBuilder.USE_PREFIX_SEARCH_UP_TO)
+            .put("analysis.analyzer." + TITLE_PREFIX_ANALYZER + ".type", "custom")
+            .put("analysis.analyzer." + TITLE_PREFIX_ANALYZER + ".tokenizer", "keyword")
+            .putArray("analysis.analyzer." + TITLE_PREFIX_ANALYZER + ".filter", "lowercase", TITLE_PREFIX_FILTER)
+            .build();
+    }
+
     private void putTopContentMapping(String index) throws IOException, ElasticSearchException {
         log.info("Putting mapping for index {}", index);
         ActionFuture<PutMappingResponse> putMapping = esClient
@@ -139,6 +316,21 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
                                     .field("type").value("string")
                                     .field("index").value("analyzed")
                                 .endObject()
+                                .startObject(EsContent.PARENT_FLATTENED_TITLE)
+                                    .field("type").value("multi_field")
+                                    .startObject("fields")
+                                        .startObject(EsContent.PARENT_FLATTENED_TITLE)
+                                            .field("type").value("string")
+                                            .field("index").value("analyzed")
+                                        .endObject()
+                                        .startObject(EsContent.PREFIX)
+                                            .field("type").value("string")
+                                            .field("index_analyzer").value(TITLE_PREFIX_ANALYZER)
+                                            .field("search_analyzer").value("keyword")
+                                            .field("omit_norms").value(true)
+                                        .endObject()
+                                    .endObject()
+                                .endObject()
                                 .startObject(EsContent.PUBLISHER)
                                     .field("type").value("string")
                                     .field("index").value("not_analyzed")
@@ -159,6 +351,127 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
                                 .startObject(EsContent.LOCATIONS)
                                     .field("type").value("nested")
                                 .endObject()
+                                .startObject(EsContent.TRANSMISSION_TIMES)
+                                    .field("type").value("long")
+                                .endObject()
+                                .startObject(EsContent.EARLIEST_FIRST_RUN_TIME)
+                                    .field("type").value("long")
+                                .endObject()
+                                .startObject(EsContent.LATEST_FIRST_RUN_TIME)
+                                    .field("type").value("long")
+                                .endObject()
+                                .startObject(EsContent.AVAILABILITY_START)
+                                    .field("type").value("long")
+                                .endObject()
+                                .startObject(EsContent.AVAILABILITY_END)
+                                    .field("type").value("long")
+                                .endObject()
+                            .endObject()
+                        .endObject()
+                    .endObject()
+                )
+            );
+        putMapping.actionGet(requestTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /* Schedule documents are only searched by publisher and broadcast, and
+     * hits only need the id and schedule entries, which are stored so they
+     * can be fetched without loading the source.
+     */
+    private void putScheduleMapping(String index) throws IOException, ElasticSearchException {
+        log.info("Putting schedule mapping for index {}", index);
+        ActionFuture<PutMappingResponse> putMapping = esClient
+            .client()
+            .admin()
+            .indices()
+            .putMapping(Requests.putMappingRequest(index)
+                .type(EsContent.TOP_LEVEL_TYPE)
+                .source(XContentFactory.jsonBuilder()
+                    .startObject()
+                        .startObject(EsContent.TOP_LEVEL_TYPE)
+                            .startObject("_all")
+                                .field("enabled").value(false)
+                            .endObject()
+                            .startObject("properties")
+                                .startObject(EsContent.URI)
+                                    .field("type").value("string")
+                                    .field("index").value("not_analyzed")
+                                .endObject()
+                                .startObject(EsContent.ID)
+                                    .field("type").value("long")
+                                    .field("index").value("not_analyzed")
+                                    .field("store").value("yes")
+                                .endObject()
+                                .startObject(EsContent.PUBLISHER)
+                                    .field("type").value("string")
+                                    .field("index").value("not_analyzed")
+                                .endObject()
+                                .startObject(EsContent.BROADCASTS)
+                                    .field("type").value("nested")
+                                    .startObject("properties")
+                                        .startObject(EsBroadcast.CHANNEL)
+                                            .field("type").value("string")
+                                            .field("index").value("not_analyzed")
+                                        .endObject()
+                                    .endObject()
+                                .endObject()
+                                .startObject(EsContent.SCHEDULE_ENTRIES)
+                                    .field("type").value("string")
+                                    .field("index").value("no")
+                                    .field("store").value("yes")
+                                .endObject()
+                            .endObject()
+                        .endObject()
+                    .endObject()
+                )
+            );
+        putMapping.actionGet(requestTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void putFlatScheduleMapping(String index) throws IOException, ElasticSearchException {
+        log.info("Putting flat schedule mapping for index {}", index);
+        ActionFuture<PutMappingResponse> putMapping = esClient
+            .client()
+            .admin()
+            .indices()
+            .putMapping(Requests.putMappingRequest(index)
+                .type(EsScheduleBroadcast.TYPE)
+                .source(XContentFactory.jsonBuilder()
+                    .startObject()
+                        .startObject(EsScheduleBroadcast.TYPE)
+                            .startObject("_all")
+                                .field("enabled").value(false)
+                            .endObject()
+                            .startObject("_routing")
+                                .field("required").value(true)
+                            .endObject()
+                            .startObject("properties")
+                                .startObject(EsScheduleBroadcast.ITEM_ID)
+                                    .field("type").value("long")
+                                    .field("index").value("no")
+                                    .field("store").value("yes")
+                                .endObject()
+                                .startObject(EsScheduleBroadcast.BROADCAST_ID)
+                                    .field("type").value("string")
+                                    .field("index").value("no")
+                                    .field("store").value("yes")
+                                .endObject()
+                                .startObject(EsScheduleBroadcast.CHANNEL)
+                                    .field("type").value("string")
+                                    .field("index").value("not_analyzed")
+                                .endObject()
+                                .startObject(EsScheduleBroadcast.PUBLISHER)
+                                    .field("type").value("string")
+                                    .field("index").value("not_analyzed")
+                                .endObject()
+                                .startObject(EsScheduleBroadcast.TRANSMISSION_TIME)
+                                    .field("type").value("long")
+                                    .field("store").value("yes")
+                                .endObject()
+                                .startObject(EsScheduleBroadcast.TRANSMISSION_END_TIME)
+                                    .field("type").value("long")
+                                    .field("store").value("yes")
+                                .endObject()
                             .endObject()
                         .endObject()
                     .endObject()
@@ -200,6 +513,21 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
                                         .field("type").value("string")
                                         .field("index").value("analyzed")
                                 .endObject()
+                                .startObject(EsContent.PARENT_FLATTENED_TITLE)
+                                    .field("type").value("multi_field")
+                                    .startObject("fields")
+                                        .startObject(EsContent.PARENT_FLATTENED_TITLE)
+                                            .field("type").value("string")
+                                            .field("index").value("analyzed")
+                                        .endObject()
+                                        .startObject(EsContent.PREFIX)
+                                            .field("type").value("string")
+                                            .field("index_analyzer").value(TITLE_PREFIX_ANALYZER)
+                                            .field("search_analyzer").value("keyword")
+                                            .field("omit_norms").value(true)
+                                        .endObject()
+                                    .endObject()
+                                .endObject()
                                 .startObject(EsContent.PUBLISHER)
                                     .field("type").value("string")
                                     .field("index").value("not_analyzed")
@@ -220,6 +548,21 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
                                 .startObject(EsContent.LOCATIONS)
                                     .field("type").value("nested")
                                 .endObject()
+                                .startObject(EsContent.TRANSMISSION_TIMES)
+                                    .field("type").value("long")
+                                .endObject()
+                                .startObject(EsContent.EARLIEST_FIRST_RUN_TIME)
+                                    .field("type").value("long")
+                                .endObject()
+                                .startObject(EsContent.LATEST_FIRST_RUN_TIME)
+                                    .field("type").value("long")
+                                .endObject()
+                                .startObject(EsContent.AVAILABILITY_START)
+                                    .field("type").value("long")
+                                .endObject()
+                                .startObject(EsContent.AVAILABILITY_END)
+                                    .field("type").value("long")
+                                .endObject()
                             .endObject()
                         .endObject()
                     .endObject()
@@ -230,41 +573,268 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
 
     @Override
     public void index(Item item) throws IndexException {
+        if (bulkAccumulator != null) {
+            Throwable failure = awaitWrite(indexAsync(item));
+            if (failure instanceof IndexException) {
+                throw (IndexException) failure;
+            }
+            if (failure != null) {
+                throw new IndexException("Error indexing " + item, failure);
+            }
+            return;
+        }
+        String itemId = getDocId(item);
+        WrittenSchedule previousSchedule = writtenSchedules.previous(itemId);
+        Set<ScheduleDocument> scheduleDocuments = Sets.newHashSet();
+        Set<ScheduleSlot> scheduleSlots = scheduleSlots(item);
+        List<IndexRequest> indexRequests = Lists.newArrayList();
         try {
-            EsContent esContent = toEsContent(item);
-            
+            addIndexRequests(indexRequests, scheduleDocuments, item);
+            WrittenSchedule schedule = new WrittenSchedule(scheduleDocuments, scheduleSlots);
+            List<DeleteRequest> deletes = staleScheduleDeletes(previousSchedule, schedule);
+            if (indexRequests.isEmpty() && deletes.isEmpty()) {
+                writtenSchedules.written(itemId, schedule);
+                log.info("Skipped unchanged {}", item);
+                return;
+            }
             BulkRequest requests = Requests.bulkRequest();
-            IndexRequest mainIndexRequest;
-            ParentRef container = item.getContainer();
-            if (container != null) {
-                fillParentData(esContent, container);
-                mainIndexRequest = Requests.indexRequest(INDEX_NAME)
-                    .type(EsContent.CHILD_TYPE)
-                    .id(getDocId(item))
-                    .source(esContent.toMap())
-                    .parent(getDocId(container));
-            } else {
-                mainIndexRequest = Requests.indexRequest(INDEX_NAME)
-                    .type(EsContent.TOP_LEVEL_TYPE)
-                    .id(getDocId(item))
-                    .source(esContent.hasChildren(false).toMap());
+            for (DeleteRequest delete : deletes) {
+                requests.add(delete);
             }
-            
-            requests.add(mainIndexRequest);
-            Map<String, ActionRequest<IndexRequest>> scheduleRequests = scheduleIndexRequests(item);
-            ensureIndices(scheduleRequests);
-            for (ActionRequest<IndexRequest> ir : scheduleRequests.values()) {
-                requests.add(ir);
+            for (IndexRequest request : indexRequests) {
+                requests.add(request);
             }
-            BulkResponse resp = timeoutGet(esClient.client().bulk(requests));
-            log.info("Indexed {} ({}ms, {})", new Object[]{item, resp.getTookInMillis(), scheduleRequests.keySet()});
+            BulkResponse resp;
+            try {
+                resp = timeoutGet(esClient.client().bulk(requests));
+            } finally {
+                invalidateSchedules(previousSchedule, schedule, indexRequests, deletes);
+            }
+            if (resp.hasFailures()) {
+                invalidateDigests(indexRequests);
+                writtenSchedules.failed(itemId, previousSchedule, schedule);
+                log.warn("Failures indexing {}: {}", item, resp.buildFailureMessage());
+            } else {
+                recordDigests(indexRequests);
+                writtenSchedules.written(itemId, schedule);
+            }
+            log.info("Indexed {} ({}ms, {} requests)", new Object[]{item, resp.getTookInMillis(), requests.numberOfActions()});
         } catch (Exception e) {
+            invalidateDigests(indexRequests);
+            writtenSchedules.failed(itemId, previousSchedule, new WrittenSchedule(scheduleDocuments, scheduleSlots));
             throw new IndexException("Error indexing " + item, e);
         }
     }
 
+    /**
+     * Indexes the item through the bulk accumulator, if one is configured,
+     * otherwise synchronously. The returned future completes when the bulk
+     * request containing the item's requests has been executed.
+     */
+    public ListenableFuture<Void> indexAsync(Item item) {
+        if (bulkAccumulator == null) {
+            try {
+                index(item);
+                return Futures.immediateFuture(null);
+            } catch (IndexException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+        String itemId = getDocId(item);
+        WrittenSchedule previousSchedule = writtenSchedules.previous(itemId);
+        Set<ScheduleDocument> scheduleDocuments = Sets.newHashSet();
+        Set<ScheduleSlot> scheduleSlots = scheduleSlots(item);
+        List<IndexRequest> indexRequests = Lists.newArrayList();
+        try {
+            addIndexRequests(indexRequests, scheduleDocuments, item);
+            WrittenSchedule schedule = new WrittenSchedule(scheduleDocuments, scheduleSlots);
+            List<DeleteRequest> deletes = staleScheduleDeletes(previousSchedule, schedule);
+            ListenableFuture<Void> result = bulkAccumulator.add(deletes, indexRequests);
+            invalidatingSchedulesOnCompletion(previousSchedule, schedule, indexRequests, deletes, result);
+            recordingSchedule(itemId, previousSchedule, schedule, result);
+            return recordingDigests(indexRequests, result);
+        } catch (Exception e) {
+            invalidateDigests(indexRequests);
+            writtenSchedules.failed(itemId, previousSchedule, new WrittenSchedule(scheduleDocuments, scheduleSlots));
+            return Futures.immediateFailedFuture(new IndexException("Error indexing " + item, e));
+        }
+    }
+
+    private ListenableFuture<Void> recordingDigests(final List<IndexRequest> requests, 
+            ListenableFuture<Void> result) {
+        Futures.addCallback(result, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                recordDigests(requests);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                invalidateDigests(requests);
+            }
+        });
+        return result;
+    }
+
+    private void recordingSchedule(final String itemId, final WrittenSchedule previous, 
+            final WrittenSchedule schedule, ListenableFuture<Void> result) {
+        Futures.addCallback(result, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                writtenSchedules.written(itemId, schedule);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                writtenSchedules.failed(itemId, previous, schedule);
+            }
+        });
+    }
+
+    private void invalidatingSchedulesOnCompletion(final WrittenSchedule previous, final WrittenSchedule schedule, 
+            final List<IndexRequest> requests, final List<DeleteRequest> deletes, ListenableFuture<Void> result) {
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                invalidateSchedules(previous, schedule, requests, deletes);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    /* Invalidated once the write has completed, whether or not it succeeded,
+     * so the cache isn't refilled from the previous version in the meantime.
+     * Days the item's broadcasts were previously in are invalidated as well
+     * as those they're now in, so moved or removed broadcasts drop out.
+     */
+    private void invalidateSchedules(WrittenSchedule previous, WrittenSchedule schedule, 
+            List<IndexRequest> requests, List<DeleteRequest> deletes) {
+        if (scheduleCache == null || (deletes.isEmpty() && !writesSchedule(requests))) {
+            return;
+        }
+        for (ScheduleSlot slot : Sets.union(previous.getSlots(), schedule.getSlots())) {
+            scheduleCache.invalidate(slot.getPublisher(), slot.getChannel(), slot.getStart(), slot.getEnd());
+        }
+    }
+
+    private Set<ScheduleSlot> scheduleSlots(Item item) {
+        Set<ScheduleSlot> slots = Sets.newHashSet();
+        if (item.getPublisher() == null) {
+            return slots;
+        }
+        for (Version version : item.getVersions()) {
+            for (Broadcast broadcast : version.getBroadcasts()) {
+                if (broadcast.getBroadcastOn() == null) {
+                    continue;
+                }
+                slots.add(new ScheduleSlot(item.getPublisher().key(), broadcast.getBroadcastOn(), 
+                    broadcast.getTransmissionTime().getMillis(), 
+                    broadcast.getTransmissionEndTime().getMillis()));
+            }
+        }
+        return slots;
+    }
+
+    private boolean writesSchedule(List<IndexRequest> requests) {
+        for (IndexRequest request : requests) {
+            if (!INDEX_NAME.equals(request.index())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recordDigests(List<IndexRequest> requests) {
+        for (IndexRequest request : requests) {
+            digests.written(request);
+        }
+    }
+
+    private void invalidateDigests(List<IndexRequest> requests) {
+        for (IndexRequest request : requests) {
+            digests.invalidate(request);
+        }
+    }
+
+    /**
+     * @return the number of document writes skipped because the document was
+     *         identical to the last version written.
+     */
+    public long skippedWrites() {
+        return digests.skippedWrites();
+    }
+
+    /* Requests are added as their digests are held so, if this fails part
+     * way, callers can invalidate the digests of those added. Schedule
+     * indices are ensured before any digest is held. Every schedule document
+     * the item produces is added to the schedule, whether or not it changed.
+     */
+    private void addIndexRequests(List<IndexRequest> requests, Set<ScheduleDocument> schedule, 
+            Item item) throws IOException {
+        Multimap<String, Broadcast> scheduleBroadcasts = scheduleBroadcasts(item);
+        ensureIndices(scheduleBroadcasts.keySet());
+        
+        EsContent esContent = toEsContent(item);
+        IndexRequest mainIndexRequest;
+        byte[] source;
+        ParentRef container = item.getContainer();
+        if (container != null) {
+            fillParentData(esContent, container);
+            source = esContent.toSourceBytes();
+            mainIndexRequest = Requests.indexRequest(INDEX_NAME)
+                .type(EsContent.CHILD_TYPE)
+                .id(getDocId(item))
+                .source(source)
+                .parent(getDocId(container));
+        } else {
+            source = esContent.hasChildren(false).toSourceBytes();
+            mainIndexRequest = Requests.indexRequest(INDEX_NAME)
+                .type(EsContent.TOP_LEVEL_TYPE)
+                .id(getDocId(item))
+                .source(source);
+        }
+        
+        addIfChanged(requests, mainIndexRequest, source);
+        addScheduleRequests(requests, schedule, item, scheduleBroadcasts);
+    }
+
+    /* Documents previously written for the item that it no longer produces,
+     * such as those of broadcasts moved or removed. Their digests are
+     * invalidated so they're written again if produced again. Those in
+     * indices since retired are left alone.
+     */
+    private List<DeleteRequest> staleScheduleDeletes(WrittenSchedule previous, WrittenSchedule current) {
+        List<DeleteRequest> deletes = Lists.newArrayList();
+        Set<String> existing = existingIndexes.existingIndices();
+        for (ScheduleDocument document : Sets.difference(previous.getDocuments(), current.getDocuments())) {
+            if (existing.contains(document.getIndex())) {
+                digests.invalidate(document.getIndex(), document.getType(), document.getId());
+                deletes.add(document.toDeleteRequest());
+            }
+        }
+        return deletes;
+    }
+
+    /* Writes through the accumulator are batched with those of concurrent
+     * callers but each caller waits for its own, so failures reach it.
+     * Returns the cause of the failure, or null if the write succeeded.
+     */
+    @Nullable
+    private Throwable awaitWrite(ListenableFuture<Void> result) {
+        try {
+            result.get(requestTimeout, TimeUnit.MILLISECONDS);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            return e;
+        }
+    }
+
     private EsContent toEsContent(Item item) {
-        return new EsContent()
+        return withBroadcastTimes(withAvailability(new EsContent(), item), item)
             .id(item.getId().longValue())
             .uri(item.getCanonicalUri())
             .title(item.getTitle())
@@ -278,50 +848,164 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
             .topics(makeESTopics(item));
     }
 
-    private void ensureIndices(Map<String, ActionRequest<IndexRequest>> scheduleRequests) throws IOException {
-        Set<String> missingIndices = Sets.difference(scheduleRequests.keySet(), existingIndexes);
+    private void ensureIndices(Set<String> indices) throws IOException {
+        Set<String> missingIndices = Sets.difference(indices, existingIndexes.existingIndices());
         for (String missingIndex : missingIndices) {
-            if (createIndex(missingIndex)) {
-                putTopContentMapping(missingIndex);
-                existingIndexes.add(missingIndex);
+            ensureIndex(missingIndex);
+        }
+    }
+
+    /* Only one thread creates a given index, any others indexing into it
+     * concurrently wait for that creation to complete. The in-flight entry
+     * is removed once the index is registered so later callers see it as
+     * existing.
+     */
+    private void ensureIndex(String index) throws IOException {
+        SettableFuture<Void> creation = SettableFuture.create();
+        ListenableFuture<Void> inFlight = indexCreations.putIfAbsent(index, creation);
+        if (inFlight != null) {
+            awaitCreation(index, inFlight);
+            return;
+        }
+        try {
+            if (!existingIndexes.existingIndices().contains(index)) {
+                if (createIndex(index)) {
+                    if (scheduleLayout == EsScheduleLayout.FLAT) {
+                        putFlatScheduleMapping(index);
+                    } else {
+                        putScheduleMapping(index);
+                    }
+                }
+                existingIndexes.register(index);
             }
+            creation.set(null);
+        } catch (IOException e) {
+            creation.setException(e);
+            throw e;
+        } catch (RuntimeException e) {
+            creation.setException(e);
+            throw e;
+        } finally {
+            indexCreations.remove(index, creation);
         }
     }
 
-    private Map<String,ActionRequest<IndexRequest>> scheduleIndexRequests(Item item) {
-        Multimap<String, EsBroadcast> indicesBroadcasts = HashMultimap.create();
+    private void awaitCreation(String index, ListenableFuture<Void> creation) {
+        try {
+            creation.get(requestTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EsPersistenceException("Interrupted waiting for creation of index " + index, e);
+        } catch (Exception e) {
+            throw new EsPersistenceException("Failed waiting for creation of index " + index, e);
+        }
+    }
+
+    /* Broadcasts without a channel can't be in any schedule, and flat
+     * documents can't be routed without one, so they aren't written.
+     */
+    private Multimap<String, Broadcast> scheduleBroadcasts(Item item) {
+        Multimap<String, Broadcast> indicesBroadcasts = ArrayListMultimap.create();
         for (Version version : item.getVersions()) {
             for (Broadcast broadcast : version.getBroadcasts()) {
-                EsBroadcast esBroadcast = toEsBroadcast(broadcast);
+                if (broadcast.getBroadcastOn() == null) {
+                    continue;
+                }
                 Iterable<String> indices = scheduleNames.indexingNamesFor(
                     broadcast.getTransmissionTime(),
                     broadcast.getTransmissionEndTime()
                 );
                 for (String index : indices) {
-                    indicesBroadcasts.put(index, esBroadcast);
+                    indicesBroadcasts.put(index, broadcast);
                 };
             }
         }
-        
-        Builder<String, ActionRequest<IndexRequest>> requests = ImmutableMap.builder();
-        for (Entry<String, Collection<EsBroadcast>> indexBroadcasts : indicesBroadcasts.asMap().entrySet()) {
-            requests.put(
-                indexBroadcasts.getKey(), 
-                Requests.indexRequest(indexBroadcasts.getKey())
+        return indicesBroadcasts;
+    }
+
+    private void addScheduleRequests(List<IndexRequest> requests, Set<ScheduleDocument> schedule, Item item, 
+            Multimap<String, Broadcast> indicesBroadcasts) throws IOException {
+        for (Entry<String, Collection<Broadcast>> indexBroadcasts : indicesBroadcasts.asMap().entrySet()) {
+            String index = indexBroadcasts.getKey();
+            if (scheduleLayout == EsScheduleLayout.FLAT) {
+                // routed by channel so a channel's schedule is on one shard.
+                for (Broadcast broadcast : indexBroadcasts.getValue()) {
+                    byte[] source = flatScheduleSource(item, broadcast);
+                    addScheduleRequest(requests, schedule, Requests.indexRequest(index)
+                        .type(EsScheduleBroadcast.TYPE)
+                        .id(flatScheduleId(item, broadcast))
+                        .routing(broadcast.getBroadcastOn())
+                        .source(source), source);
+                }
+            } else {
+                byte[] source = nestedScheduleSource(item, indexBroadcasts.getValue());
+                addScheduleRequest(requests, schedule, Requests.indexRequest(index)
                     .type(EsContent.TOP_LEVEL_TYPE)
                     .id(getDocId(item))
-                    .source(new EsContent()
-                        .id(item.getId().longValue())
-                        .uri(item.getCanonicalUri())
-                        .publisher(item.getPublisher() != null ? item.getPublisher().key() : null)
-                        .broadcasts(indexBroadcasts.getValue())
-                        .hasChildren(false)
-                        .toMap()
-                    )
-            );
+                    .source(source), source);
+            }
         }
-        
-        return requests.build();
+    }
+
+    private void addScheduleRequest(List<IndexRequest> requests, Set<ScheduleDocument> schedule, 
+            IndexRequest request, byte[] source) {
+        schedule.add(ScheduleDocument.of(request));
+        addIfChanged(requests, request, source);
+    }
+
+    private void addIfChanged(List<IndexRequest> requests, IndexRequest request, byte[] source) {
+        if (!digests.unchanged(request, new BytesArray(source))) {
+            requests.add(request);
+        }
+    }
+
+    private byte[] nestedScheduleSource(Item item, Collection<Broadcast> broadcasts) throws IOException {
+        Collection<EsBroadcast> esBroadcasts = Lists.newArrayListWithCapacity(broadcasts.size());
+        for (Broadcast broadcast : broadcasts) {
+            esBroadcasts.add(toEsBroadcast(broadcast));
+        }
+        return new EsContent()
+            .id(item.getId().longValue())
+            .uri(item.getCanonicalUri())
+            .publisher(item.getPublisher() != null ? item.getPublisher().key() : null)
+            .broadcasts(esBroadcasts)
+            .scheduleEntries(scheduleEntries(esBroadcasts))
+            .hasChildren(false)
+            .toSourceBytes();
+    }
+
+    private byte[] flatScheduleSource(Item item, Broadcast broadcast) throws IOException {
+        return new EsScheduleBroadcast()
+            .itemId(item.getId().longValue())
+            .broadcastId(broadcast.getSourceId())
+            .channel(broadcast.getBroadcastOn())
+            .publisher(item.getPublisher() != null ? item.getPublisher().key() : null)
+            .transmissionTime(broadcast.getTransmissionTime().getMillis())
+            .transmissionEndTime(broadcast.getTransmissionEndTime().getMillis())
+            .toSourceBytes();
+    }
+
+    /* Documents are routed by channel so the channel is part of the id,
+     * otherwise a broadcast moved to another channel is written as a second
+     * document with the same id in another shard. Broadcasts without a
+     * source id are keyed on where and when they are.
+     */
+    private String flatScheduleId(Item item, Broadcast broadcast) {
+        if (broadcast.getSourceId() != null) {
+            return broadcast.getSourceId() + ":" + broadcast.getBroadcastOn();
+        }
+        return getDocId(item) + ":" + broadcast.getBroadcastOn() + ":" + broadcast.getTransmissionTime().getMillis();
+    }
+
+    private Collection<String> scheduleEntries(Collection<EsBroadcast> broadcasts) {
+        Collection<String> entries = Lists.newArrayListWithCapacity(broadcasts.size());
+        for (EsBroadcast broadcast : broadcasts) {
+            String entry = broadcast.toScheduleEntry();
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
     }
 
     @Override
@@ -336,17 +1020,51 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
             .publisher(container.getPublisher() != null ? container.getPublisher().key() : null)
             .specialization(container.getSpecialization() != null ? container.getSpecialization().name() : null);
         
+        String containerId = getDocId(container);
+        ContainerTitle title = new ContainerTitle(container.getTitle(), flattenedOrNull(container.getTitle()));
+        ContainerTitle indexedTitle = containerTitle(containerId);
         if (!container.getChildRefs().isEmpty()) {
             indexed.hasChildren(Boolean.TRUE);
-            indexChildrenData(container);
+            // children only carry the container's titles so only need
+            // rewriting if they differ from those already indexed.
+            if (!title.equals(indexedTitle)) {
+                indexChildrenData(container);
+            }
         } else {
             indexed.hasChildren(Boolean.FALSE);
         }
+        byte[] source;
+        try {
+            source = indexed.toSourceBytes();
+        } catch (IOException e) {
+            throw new EsPersistenceException("Failed to encode container: " + containerId, e);
+        }
         IndexRequest request = Requests.indexRequest(INDEX_NAME)
             .type(EsContent.TOP_LEVEL_TYPE)
-            .id(getDocId(container))
-            .source(indexed.toMap());
-        timeoutGet(esClient.client().index(request));
+            .id(containerId)
+            .source(source);
+        if (digests.unchanged(request, new BytesArray(source))) {
+            containerTitles.put(containerId, title);
+            return;
+        }
+        if (bulkAccumulator != null) {
+            List<IndexRequest> requests = ImmutableList.of(request);
+            Throwable failure = awaitWrite(recordingDigests(requests, bulkAccumulator.add(requests)));
+            if (failure != null) {
+                throw new EsPersistenceException("Failed to index container: " + containerId, failure);
+            }
+        } else {
+            try {
+                timeoutGet(esClient.client().index(request));
+            } catch (RuntimeException e) {
+                digests.invalidate(request);
+                throw e;
+            }
+            digests.written(request);
+        }
+        // only cached once the container and its children carry the title,
+        // otherwise a retry after a failure would skip rewriting the children.
+        containerTitles.put(containerId, title);
     }
 
 
@@ -355,7 +1073,7 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
     }
     
     private Collection<EsBroadcast> makeESBroadcasts(Item item) {
-        Collection<EsBroadcast> esBroadcasts = new LinkedList<EsBroadcast>();
+        Collection<EsBroadcast> esBroadcasts = Lists.newArrayList();
         for (Version version : item.getVersions()) {
             for (Broadcast broadcast : version.getBroadcasts()) {
                 if (broadcast.isActivelyPublished()) {
@@ -366,13 +1084,43 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
         return esBroadcasts;
     }
 
+    /* Derived from the item's broadcasts so scoring reads a few values
+     * instead of iterating the nested broadcasts: every transmission time,
+     * sorted, and the earliest and latest first run. First runs are
+     * broadcasts not flagged as repeats, as the repeat flag of nested
+     * broadcasts is indexed as false when unknown.
+     */
+    private EsContent withBroadcastTimes(EsContent content, Item item) {
+        List<Long> times = Lists.newArrayList();
+        Long earliestFirstRun = null;
+        Long latestFirstRun = null;
+        for (Version version : item.getVersions()) {
+            for (Broadcast broadcast : version.getBroadcasts()) {
+                if (broadcast.isActivelyPublished()) {
+                    long time = broadcast.getTransmissionTime().getMillis();
+                    times.add(time);
+                    if (!Boolean.TRUE.equals(broadcast.getRepeat())) {
+                        earliestFirstRun = earliestFirstRun == null ? time : Math.min(earliestFirstRun, time);
+                        latestFirstRun = latestFirstRun == null ? time : Math.max(latestFirstRun, time);
+                    }
+                }
+            }
+        }
+        Collections.sort(times);
+        return content
+            .transmissionTimes(times)
+            .earliestFirstRunTime(earliestFirstRun)
+            .latestFirstRunTime(latestFirstRun);
+    }
+
     private EsBroadcast toEsBroadcast(Broadcast broadcast) {
+        DateTime transmissionTime = toUtc(broadcast.getTransmissionTime());
         return new EsBroadcast()
             .id(broadcast.getSourceId())
             .channel(broadcast.getBroadcastOn())
-            .transmissionTime(toUtc(broadcast.getTransmissionTime()).toDate())
+            .transmissionTime(transmissionTime.toDate())
             .transmissionEndTime(toUtc(broadcast.getTransmissionEndTime()).toDate())
-            .transmissionTimeInMillis(toUtc(broadcast.getTransmissionTime()).getMillis())
+            .transmissionTimeInMillis(transmissionTime.getMillis())
             .repeat(broadcast.getRepeat() != null ? broadcast.getRepeat() : false);
     }
 
@@ -381,7 +1129,7 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
     }
 
     private Collection<EsLocation> makeESLocations(Item item) {
-        Collection<EsLocation> esLocations = new LinkedList<EsLocation>();
+        Collection<EsLocation> esLocations = Lists.newArrayList();
         for (Version version : item.getVersions()) {
             for (Encoding encoding : version.getManifestedAs()) {
                 for (Location location : encoding.getAvailableAt()) {
@@ -396,6 +1144,33 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
         return esLocations;
     }
 
+    /* The window spans the earliest start to the latest end of the item's
+     * locations so availability is a single range check. Gaps between
+     * locations are counted as available.
+     */
+    private EsContent withAvailability(EsContent content, Item item) {
+        Long start = null;
+        Long end = null;
+        for (Version version : item.getVersions()) {
+            for (Encoding encoding : version.getManifestedAs()) {
+                for (Location location : encoding.getAvailableAt()) {
+                    Policy policy = location.getPolicy();
+                    if (policy != null
+                        && policy.getAvailabilityStart() != null
+                        && policy.getAvailabilityEnd() != null) {
+                        long policyStart = policy.getAvailabilityStart().getMillis();
+                        long policyEnd = policy.getAvailabilityEnd().getMillis();
+                        start = start == null ? policyStart : Math.min(start, policyStart);
+                        end = end == null ? policyEnd : Math.max(end, policyEnd);
+                    }
+                }
+            }
+        }
+        return content
+            .availabilityStart(start)
+            .availabilityEnd(end);
+    }
+
     private EsLocation toEsLocation(Policy policy) {
         return new EsLocation()
             .availabilityTime(toUtc(policy.getAvailabilityStart()).toDate())
@@ -403,7 +1178,7 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
     }
 
     private Collection<EsTopicMapping> makeESTopics(Item item) {
-        Collection<EsTopicMapping> esTopics = new LinkedList<EsTopicMapping>();
+        Collection<EsTopicMapping> esTopics = Lists.newArrayList();
         for (TopicRef topic : item.getTopicRefs()) {
             esTopics.add(new EsTopicMapping().id(topic.getTopic().longValue()));
         }
@@ -411,36 +1186,137 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
     }
 
     private void fillParentData(EsContent child, ParentRef parent) {
-        Map<String, Object> indexedContainer = trySearchParent(parent);
-        if (indexedContainer != null) {
-            Object title = indexedContainer.get(EsContent.TITLE);
-            child.parentTitle(title != null ? title.toString() : null);
-            Object flatTitle = indexedContainer.get(EsContent.FLATTENED_TITLE);
-            child.parentFlattenedTitle(flatTitle != null ? flatTitle.toString() : null);
+        ContainerTitle containerTitle = containerTitle(getDocId(parent));
+        if (containerTitle != null) {
+            child.parentTitle(containerTitle.getTitle());
+            child.parentFlattenedTitle(containerTitle.getFlattenedTitle());
+        }
+    }
+
+    @Nullable
+    private ContainerTitle containerTitle(String containerId) {
+        ContainerTitle cached = containerTitles.get(containerId);
+        if (cached != null) {
+            return cached;
         }
+        Map<String, Object> indexedContainer = trySearchParent(containerId);
+        if (indexedContainer == null) {
+            return null;
+        }
+        Object title = indexedContainer.get(EsContent.TITLE);
+        Object flatTitle = indexedContainer.get(EsContent.FLATTENED_TITLE);
+        ContainerTitle containerTitle = new ContainerTitle(
+            title != null ? title.toString() : null,
+            flatTitle != null ? flatTitle.toString() : null
+        );
+        containerTitles.put(containerId, containerTitle);
+        return containerTitle;
+    }
+
+    public CacheStats containerTitleCacheStats() {
+        return containerTitles.stats();
     }
 
     private void indexChildrenData(Container parent) {
+        if (parent.getTitle() == null) {
+            return;
+        }
+        String parentId = getDocId(parent);
+        String parentTitle = parent.getTitle();
+        String parentFlattenedTitle = Strings.flatten(parentTitle);
+        if (bulkAccumulator != null) {
+            drainPendingWrites(parentId);
+        }
+        
         BulkRequest bulk = Requests.bulkRequest();
-        for (ChildRef child : parent.getChildRefs()) {
-            Map<String, Object> indexedChild = trySearchChild(parent, child);
-            if (indexedChild != null) {
-                if (parent.getTitle() != null) {
-                    indexedChild.put(EsContent.PARENT_TITLE, parent.getTitle());
-                    indexedChild.put(EsContent.PARENT_FLATTENED_TITLE, Strings.flatten(parent.getTitle()));
-                    bulk.add(Requests.indexRequest(INDEX_NAME).
-                            type(EsContent.CHILD_TYPE).
-                            parent(getDocId(parent)).
-                            id(getDocId(child)).
-                            source(indexedChild));
+        for (MultiGetResponse children : fetchChildren(parentId, parent.getChildRefs())) {
+            for (MultiGetItemResponse child : children) {
+                if (child.isFailed() || !child.getResponse().isExists()) {
+                    continue;
                 }
+                Map<String, Object> indexedChild = child.getResponse().getSource();
+                if (parentTitle.equals(indexedChild.get(EsContent.PARENT_TITLE))
+                    && parentFlattenedTitle.equals(indexedChild.get(EsContent.PARENT_FLATTENED_TITLE))) {
+                    continue;
+                }
+                indexedChild.put(EsContent.PARENT_TITLE, parentTitle);
+                indexedChild.put(EsContent.PARENT_FLATTENED_TITLE, parentFlattenedTitle);
+                digests.invalidate(INDEX_NAME, EsContent.CHILD_TYPE, child.getId());
+                bulk.add(Requests.indexRequest(INDEX_NAME).
+                        type(EsContent.CHILD_TYPE).
+                        parent(parentId).
+                        id(child.getId()).
+                        source(indexedChild));
             }
         }
         if (bulk.numberOfActions() > 0) {
             BulkResponse response = timeoutGet(esClient.client().bulk(bulk));
             if (response.hasFailures()) {
-                throw new EsPersistenceException("Failed to index children for container: " + getDocId(parent));
+                throw new EsPersistenceException("Failed to index children for container: " + parentId);
+            }
+        }
+    }
+
+    /* Children written through the accumulator may still be pending, in
+     * which case the multi-get wouldn't find them to retitle.
+     */
+    private void drainPendingWrites(String parentId) {
+        try {
+            if (!bulkAccumulator.drain(requestTimeout, TimeUnit.MILLISECONDS)) {
+                throw new EsPersistenceException(
+                    "Timed out waiting for pending writes to index children of container: " + parentId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EsPersistenceException(
+                "Interrupted waiting for pending writes to index children of container: " + parentId, e);
+        }
+    }
+
+    /* Fetches children in chunks, with at most CHILD_FETCH_PARALLELISM
+     * multi-gets in flight at once. A permit is released when its multi-get
+     * completes, or fails to be sent.
+     */
+    private List<MultiGetResponse> fetchChildren(String parentId, Iterable<ChildRef> childRefs) {
+        final Semaphore permits = new Semaphore(CHILD_FETCH_PARALLELISM);
+        List<ListenableFuture<MultiGetResponse>> responses = Lists.newArrayList();
+        for (List<ChildRef> chunk : Iterables.partition(childRefs, CHILD_FETCH_CHUNK_SIZE)) {
+            MultiGetRequest request = new MultiGetRequest();
+            for (ChildRef child : chunk) {
+                request.add(new MultiGetRequest.Item(INDEX_NAME, EsContent.CHILD_TYPE, getDocId(child))
+                    .routing(parentId));
+            }
+            acquire(permits, parentId);
+            SettableFuture<MultiGetResponse> response = SettableFuture.create();
+            response.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    permits.release();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            try {
+                esClient.client().multiGet(request, FutureSettingActionListener.setting(response));
+            } catch (RuntimeException e) {
+                response.setException(e);
+                throw new EsPersistenceException("Failed to fetch children for container: " + parentId, e);
+            }
+            responses.add(response);
+        }
+        try {
+            return Futures.allAsList(responses).get(requestTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            throw new EsPersistenceException("Failed to fetch children for container: " + parentId, e);
+        }
+    }
+
+    private void acquire(Semaphore permits, String parentId) {
+        try {
+            if (!permits.tryAcquire(requestTimeout, TimeUnit.MILLISECONDS)) {
+                throw new EsPersistenceException("Timed out fetching children for container: " + parentId);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EsPersistenceException("Interrupted fetching children for container: " + parentId, e);
         }
     }
 
@@ -456,8 +1332,8 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
         return String.valueOf(container.getId());
     }
 
-    private Map<String, Object> trySearchParent(ParentRef parent) {
-        GetRequest request = Requests.getRequest(INDEX_NAME).id(getDocId(parent));
+    private Map<String, Object> trySearchParent(String containerId) {
+        GetRequest request = Requests.getRequest(INDEX_NAME).id(containerId);
         GetResponse response = timeoutGet(esClient.client().get(request));
         if (response.isExists()) {
             return response.getSource();
@@ -466,22 +1342,6 @@ public class EsContentIndexer extends AbstractIdleService implements ContentInde
         }
     }
 
-    private Map<String, Object> trySearchChild(Container parent, ChildRef child) {
-        try {
-            GetRequest request = Requests.getRequest(INDEX_NAME)
-                    .parent(getDocId(parent))
-                    .id(getDocId(child));
-            GetResponse response = timeoutGet(esClient.client().get(request));
-            if (response.isExists()) {
-                return response.getSource();
-            } else {
-                return null;
-            }
-        } catch (NoShardAvailableActionException ex) {
-            return null;
-        }
-    }
-    
     private <T> T timeoutGet(ActionFuture<T> future) {
         return future.actionGet(requestTimeout, TimeUnit.MILLISECONDS);
     }
@@ -6,17 +6,28 @@ import static org.elasticsearch.index.query.FilterBuilders.typeFilter;
 import static org.elasticsearch.index.query.QueryBuilders.filteredQuery;
 import static org.elasticsearch.index.query.QueryBuilders.topChildrenQuery;
 
-import java.util.Date;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 import org.atlasapi.media.EsSchema;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.media.entity.Specialization;
+import org.atlasapi.media.util.EsPersistenceException;
 import org.atlasapi.media.util.FiltersBuilder;
 import org.atlasapi.search.model.SearchQuery;
 import org.atlasapi.search.model.SearchResults;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -26,39 +37,131 @@ import org.elasticsearch.node.Node;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
+import org.joda.time.Duration;
 
 import com.google.common.base.Function;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.SystemClock;
 
 /**
  */
 public class EsContentSearcher implements ContentSearcher {
 
+    private static final Duration PREFIX_FIELD_RECHECK = Duration.standardMinutes(1);
+    private static final long MAPPING_TIMEOUT_MILLIS = 5000;
+
     private final Client index;
+    private final Cache<SearchKey, ListenableFuture<SearchResults>> results;
+    private final Clock clock;
+
+    /* Indices created before the title prefix subfield was added don't map
+     * it, and can't have it added without reindexing, so it's only searched
+     * once it's seen mapped. Until then the mapping is checked at most once
+     * every PREFIX_FIELD_RECHECK.
+     */
+    private volatile boolean prefixFieldMapped = false;
+    private volatile long prefixFieldCheckedAt = Long.MIN_VALUE;
 
     public EsContentSearcher(Node index) {
+        this(index.client());
+    }
+
+    /**
+     * Caches results of identical searches, compared on the normalised term,
+     * publishers, specializations, weightings and selection, for a short
+     * time. Concurrent identical searches share a single request. Searches
+     * which fail aren't cached.
+     */
+    public EsContentSearcher(Node index, long expireAfterWrite, TimeUnit unit, long maximumSize) {
+        this(index, expireAfterWrite, unit, maximumSize, new SystemClock());
+    }
+
+    public EsContentSearcher(Node index, long expireAfterWrite, TimeUnit unit, long maximumSize, Clock clock) {
         this.index = index.client();
+        this.results = CacheBuilder.newBuilder()
+            .expireAfterWrite(expireAfterWrite, unit)
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build();
+        this.clock = clock;
     }
 
     protected EsContentSearcher(Client index) {
         this.index = index;
+        this.results = null;
+        this.clock = new SystemClock();
     }
 
     @Override
-    public final ListenableFuture<SearchResults> search(SearchQuery search) {
+    public final ListenableFuture<SearchResults> search(final SearchQuery search) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(search.getTerm()),
+            "query term null or empty");
+        if (results == null) {
+            return execute(search);
+        }
+        SearchKey key = new SearchKey(search);
+        final boolean[] loaded = new boolean[1];
+        try {
+            ListenableFuture<SearchResults> result = results.get(key, new Callable<ListenableFuture<SearchResults>>() {
+                @Override
+                public ListenableFuture<SearchResults> call() {
+                    loaded[0] = true;
+                    return execute(search);
+                }
+            });
+            // only once cached, so a search failing immediately isn't kept.
+            if (loaded[0]) {
+                uncacheOnFailure(key, result);
+            }
+            return result;
+        } catch (ExecutionException e) {
+            throw new EsPersistenceException("Failed to search for " + key, e.getCause());
+        }
+    }
+
+    /**
+     * @return statistics of the result cache, or null if results aren't
+     *         cached.
+     */
+    @Nullable
+    public CacheStats cacheStats() {
+        return results != null ? results.stats() : null;
+    }
+
+    private void uncacheOnFailure(final SearchKey key, final ListenableFuture<SearchResults> result) {
+        Futures.addCallback(result, new FutureCallback<SearchResults>() {
+            @Override
+            public void onSuccess(SearchResults searchResults) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                results.asMap().remove(key, result);
+            }
+        });
+    }
+
+    private ListenableFuture<SearchResults> execute(SearchQuery search) {
         QueryBuilder titleQuery = null;
         QueryBuilder availabilityQuery = null;
         QueryBuilder broadcastQuery = null;
         QueryBuilder contentQuery = null;
 
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(search.getTerm()),
-            "query term null or empty");
-
-        titleQuery = TitleQueryBuilder.build(search.getTerm(), search.getTitleWeighting());
+        titleQuery = TitleQueryBuilder.build(search.getTerm(), search.getTitleWeighting(),
+            prefixFieldMapped());
 
         List<TermsFilterBuilder> filters = new LinkedList<TermsFilterBuilder>();
         if (search.getIncludedPublishers() != null && !search.getIncludedPublishers().isEmpty()) {
@@ -76,13 +179,13 @@ public class EsContentSearcher implements ContentSearcher {
         if (search.getBroadcastWeighting() != 0.0f) {
             broadcastQuery = BroadcastQueryBuilder.build(titleQuery,
                 search.getBroadcastWeighting(),
-                1f);
+                1f, clock);
         } else {
             broadcastQuery = titleQuery;
         }
 
         if (search.getCatchupWeighting() != 0.0f) {
-            availabilityQuery = AvailabilityQueryBuilder.build(new Date(),
+            availabilityQuery = AvailabilityQueryBuilder.build(clock.now().toDate(),
                 search.getCatchupWeighting());
         }
 
@@ -117,6 +220,114 @@ public class EsContentSearcher implements ContentSearcher {
         return result;
     }
 
+    private boolean prefixFieldMapped() {
+        if (prefixFieldMapped) {
+            return true;
+        }
+        long now = clock.now().getMillis();
+        if (now - prefixFieldCheckedAt < PREFIX_FIELD_RECHECK.getMillis()) {
+            return false;
+        }
+        prefixFieldCheckedAt = now;
+        try {
+            IndexMetaData metaData = index.admin().cluster().prepareState()
+                .setFilterIndices(EsSchema.INDEX_NAME)
+                .execute().actionGet(MAPPING_TIMEOUT_MILLIS)
+                .getState().getMetaData().index(EsSchema.INDEX_NAME);
+            prefixFieldMapped = metaData != null
+                && hasPrefixField(metaData.mappings().get(EsContent.TOP_LEVEL_TYPE))
+                && hasPrefixField(metaData.mappings().get(EsContent.CHILD_TYPE));
+        } catch (Exception e) {
+            prefixFieldMapped = false;
+        }
+        return prefixFieldMapped;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean hasPrefixField(@Nullable MappingMetaData mapping) throws IOException {
+        if (mapping == null) {
+            return false;
+        }
+        Map<String, Object> properties = (Map<String, Object>) mapping.sourceAsMap().get("properties");
+        if (properties == null) {
+            return false;
+        }
+        Map<String, Object> title = (Map<String, Object>) properties.get(EsContent.PARENT_FLATTENED_TITLE);
+        if (title == null) {
+            return false;
+        }
+        Map<String, Object> fields = (Map<String, Object>) title.get("fields");
+        return fields != null && fields.containsKey(EsContent.PREFIX);
+    }
+
+    /* The title query is built from the term's tokens, which the flattened
+     * term is derived from, so searches with the same tokens are the same.
+     */
+    private static final class SearchKey {
+
+        private final ImmutableList<String> tokens;
+        private final ImmutableSet<Publisher> publishers;
+        private final ImmutableSet<Specialization> specializations;
+        private final float titleWeighting;
+        private final float broadcastWeighting;
+        private final float catchupWeighting;
+        private final int offset;
+        private final int limit;
+
+        public SearchKey(SearchQuery search) {
+            this.tokens = ImmutableList.copyOf(
+                org.atlasapi.media.util.Strings.tokenize(search.getTerm(), true));
+            this.publishers = search.getIncludedPublishers() != null
+                            ? ImmutableSet.copyOf(search.getIncludedPublishers())
+                            : ImmutableSet.<Publisher>of();
+            this.specializations = search.getIncludedSpecializations() != null
+                                 ? ImmutableSet.copyOf(search.getIncludedSpecializations())
+                                 : ImmutableSet.<Specialization>of();
+            this.titleWeighting = search.getTitleWeighting();
+            this.broadcastWeighting = search.getBroadcastWeighting();
+            this.catchupWeighting = search.getCatchupWeighting();
+            this.offset = search.getSelection().getOffset();
+            this.limit = search.getSelection().limitOrDefaultValue(10);
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (this == that) {
+                return true;
+            }
+            if (that instanceof SearchKey) {
+                SearchKey other = (SearchKey) that;
+                return tokens.equals(other.tokens)
+                    && publishers.equals(other.publishers)
+                    && specializations.equals(other.specializations)
+                    && titleWeighting == other.titleWeighting
+                    && broadcastWeighting == other.broadcastWeighting
+                    && catchupWeighting == other.catchupWeighting
+                    && offset == other.offset
+                    && limit == other.limit;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(tokens, publishers, specializations, 
+                titleWeighting, broadcastWeighting, catchupWeighting, offset, limit);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                .add("tokens", tokens)
+                .add("publishers", publishers)
+                .add("specializations", specializations)
+                .add("weightings", ImmutableList.of(titleWeighting, broadcastWeighting, catchupWeighting))
+                .add("offset", offset)
+                .add("limit", limit)
+                .toString();
+        }
+    }
+
     private static class SearchResponseListener implements ActionListener<SearchResponse> {
 
         private final SettableFuture<SearchResults> result;
@@ -0,0 +1,50 @@
+package org.atlasapi.media.content;
+
+import org.atlasapi.media.util.EsObject;
+
+/**
+ * A broadcast stored as its own document in a schedule index using the
+ * {@link org.atlasapi.media.content.schedule.EsScheduleLayout#FLAT} layout.
+ * Times are in millis.
+ */
+public class EsScheduleBroadcast extends EsObject {
+
+    public final static String TYPE = "broadcast";
+
+    public final static String ITEM_ID = "itemId";
+    public final static String BROADCAST_ID = "broadcastId";
+    public final static String CHANNEL = "channel";
+    public final static String PUBLISHER = "publisher";
+    public final static String TRANSMISSION_TIME = "transmissionTime";
+    public final static String TRANSMISSION_END_TIME = "transmissionEndTime";
+
+    public EsScheduleBroadcast itemId(long itemId) {
+        properties.put(ITEM_ID, itemId);
+        return this;
+    }
+
+    public EsScheduleBroadcast broadcastId(String broadcastId) {
+        properties.put(BROADCAST_ID, broadcastId);
+        return this;
+    }
+
+    public EsScheduleBroadcast channel(String channel) {
+        properties.put(CHANNEL, channel);
+        return this;
+    }
+
+    public EsScheduleBroadcast publisher(String publisher) {
+        properties.put(PUBLISHER, publisher);
+        return this;
+    }
+
+    public EsScheduleBroadcast transmissionTime(long transmissionTime) {
+        properties.put(TRANSMISSION_TIME, transmissionTime);
+        return this;
+    }
+
+    public EsScheduleBroadcast transmissionEndTime(long transmissionEndTime) {
+        properties.put(TRANSMISSION_END_TIME, transmissionEndTime);
+        return this;
+    }
+}
@@ -18,16 +18,27 @@ import org.elasticsearch.index.query.TermQueryBuilder;
 public class TitleQueryBuilder {
 
     private static final Joiner JOINER = Joiner.on("");
-    private static final int USE_PREFIX_SEARCH_UP_TO = 2;
+    static final int USE_PREFIX_SEARCH_UP_TO = 2;
     private static final Map<String, String> EXPANSIONS = ImmutableMap.<String, String>builder().put("dr", "doctor").put("rd", "road").build();
 
     public static QueryBuilder build(String title, float boost) {
+        return build(title, boost, false);
+    }
+
+    /**
+     * @param prefixFieldMapped
+     *            whether the content index maps the prefix subfield of the
+     *            flattened parent title, which only indices created with it
+     *            do. If not, short prefixes are searched with prefix
+     *            queries.
+     */
+    public static QueryBuilder build(String title, float boost, boolean prefixFieldMapped) {
         List<String> tokens = Strings.tokenize(title, true);
         QueryBuilder query = null;
         if (shouldUsePrefixSearch(tokens)) {
-            query = prefixSearch(Iterables.getOnlyElement(tokens));
+            query = prefixSearch(Iterables.getOnlyElement(tokens), prefixFieldMapped);
         } else {
-            query = fuzzyTermSearch(Strings.flatten(title), tokens);
+            query = fuzzyTermSearch(Strings.flatten(title), tokens, prefixFieldMapped);
         }
         return QueryBuilders.customBoostFactorQuery(query).boostFactor(boost);
     }
@@ -36,23 +47,28 @@ public class TitleQueryBuilder {
         return tokens.size() == 1 && Iterables.getOnlyElement(tokens).length() <= USE_PREFIX_SEARCH_UP_TO;
     }
 
-    private static QueryBuilder prefixSearch(String token) {
+    private static QueryBuilder prefixSearch(String token, boolean prefixFieldMapped) {
         BoolQueryBuilder withExpansions = new BoolQueryBuilder();
         withExpansions.minimumNumberShouldMatch(1);
-        withExpansions.should(prefixQuery(token));
-        //
+        withExpansions.should(prefixQuery(token, prefixFieldMapped));
         String expanded = EXPANSIONS.get(token);
         if (expanded != null) {
-            withExpansions.should(prefixQuery(expanded));
+            withExpansions.should(prefixQuery(expanded, prefixFieldMapped));
         }
         return withExpansions;
     }
 
-    private static QueryBuilder prefixQuery(String prefix) {
+    /* Prefixes this short are indexed as terms of the prefix field, so are
+     * looked up directly instead of being expanded to every matching title.
+     */
+    private static QueryBuilder prefixQuery(String prefix, boolean prefixFieldMapped) {
+        if (prefixFieldMapped && prefix.length() <= USE_PREFIX_SEARCH_UP_TO) {
+            return new TermQueryBuilder(EsContent.PARENT_FLATTENED_TITLE_PREFIX, prefix);
+        }
         return new PrefixQueryBuilder(EsContent.PARENT_FLATTENED_TITLE, prefix);
     }
 
-    private static QueryBuilder fuzzyTermSearch(String value, List<String> tokens) {
+    private static QueryBuilder fuzzyTermSearch(String value, List<String> tokens, boolean prefixFieldMapped) {
         BoolQueryBuilder queryForTerms = new BoolQueryBuilder();
         for (String token : tokens) {
             BoolQueryBuilder queryForThisTerm = new BoolQueryBuilder();
@@ -73,7 +89,7 @@ public class TitleQueryBuilder {
         either.should(queryForTerms);
         either.should(fuzzyWithoutSpaces(value));
 
-        QueryBuilder prefix = QueryBuilders.customBoostFactorQuery(prefixSearch(value)).boostFactor(50);
+        QueryBuilder prefix = QueryBuilders.customBoostFactorQuery(prefixSearch(value, prefixFieldMapped)).boostFactor(50);
         either.should(prefix);
         
         QueryBuilder exact = QueryBuilders.customBoostFactorQuery(exactMatch(value, tokens)).boostFactor(100); 
@@ -0,0 +1,197 @@
+package org.atlasapi.media.content;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Requests;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Remembers the schedule index documents and slots last written for recently
+ * written items, so documents an item's broadcasts no longer produce can be
+ * deleted, and the days they were in invalidated, when it's next written.
+ * Items evicted, or last written before a restart, are unknown and their
+ * previous documents aren't deleted.
+ */
+class WrittenSchedules {
+
+    private final Cache<String, WrittenSchedule> written;
+
+    public WrittenSchedules(long maximumSize) {
+        this.written = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .build();
+    }
+
+    public WrittenSchedule previous(String itemId) {
+        WrittenSchedule schedule = written.getIfPresent(itemId);
+        return schedule != null ? schedule : WrittenSchedule.EMPTY;
+    }
+
+    public void written(String itemId, WrittenSchedule schedule) {
+        written.put(itemId, schedule);
+    }
+
+    /**
+     * Remembers both the previous and attempted schedule of a failed write,
+     * either of which may now exist.
+     */
+    public void failed(String itemId, WrittenSchedule previous, WrittenSchedule attempted) {
+        written.put(itemId, previous.union(attempted));
+    }
+
+    static final class WrittenSchedule {
+
+        static final WrittenSchedule EMPTY = new WrittenSchedule(
+            ImmutableSet.<ScheduleDocument>of(), ImmutableSet.<ScheduleSlot>of());
+
+        private final ImmutableSet<ScheduleDocument> documents;
+        private final ImmutableSet<ScheduleSlot> slots;
+
+        public WrittenSchedule(Set<ScheduleDocument> documents, Set<ScheduleSlot> slots) {
+            this.documents = ImmutableSet.copyOf(documents);
+            this.slots = ImmutableSet.copyOf(slots);
+        }
+
+        public ImmutableSet<ScheduleDocument> getDocuments() {
+            return documents;
+        }
+
+        public ImmutableSet<ScheduleSlot> getSlots() {
+            return slots;
+        }
+
+        public WrittenSchedule union(WrittenSchedule other) {
+            return new WrittenSchedule(Sets.union(documents, other.documents), Sets.union(slots, other.slots));
+        }
+    }
+
+    static final class ScheduleDocument {
+
+        private final String index;
+        private final String type;
+        private final String id;
+        private final String routing;
+
+        public static ScheduleDocument of(IndexRequest request) {
+            return new ScheduleDocument(request.index(), request.type(), request.id(), request.routing());
+        }
+
+        public ScheduleDocument(String index, String type, String id, @Nullable String routing) {
+            this.index = checkNotNull(index);
+            this.type = checkNotNull(type);
+            this.id = checkNotNull(id);
+            this.routing = routing;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public DeleteRequest toDeleteRequest() {
+            return Requests.deleteRequest(index).type(type).id(id).routing(routing);
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (this == that) {
+                return true;
+            }
+            if (that instanceof ScheduleDocument) {
+                ScheduleDocument other = (ScheduleDocument) that;
+                return index.equals(other.index)
+                    && type.equals(other.type)
+                    && id.equals(other.id)
+                    && Objects.equal(routing, other.routing);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(index, type, id, routing);
+        }
+
+        @Override
+        public String toString() {
+            return index + "/" + type + "/" + id;
+        }
+    }
+
+    /**
+     * Where and when a broadcast was written to a publisher's schedule.
+     */
+    static final class ScheduleSlot {
+
+        private final String publisher;
+        private final String channel;
+        private final long start;
+        private final long end;
+
+        public ScheduleSlot(String publisher, String channel, long start, long end) {
+            this.publisher = checkNotNull(publisher);
+            this.channel = checkNotNull(channel);
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getPublisher() {
+            return publisher;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (this == that) {
+                return true;
+            }
+            if (that instanceof ScheduleSlot) {
+                ScheduleSlot other = (ScheduleSlot) that;
+                return publisher.equals(other.publisher)
+                    && channel.equals(other.channel)
+                    && start == other.start
+                    && end == other.end;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(publisher, channel, start, end);
+        }
+
+        @Override
+        public String toString() {
+            return publisher + "/" + channel + "/" + start + "-" + end;
+        }
+    }
+}
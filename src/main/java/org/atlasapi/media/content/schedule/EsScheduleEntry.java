@@ -0,0 +1,108 @@
+package org.atlasapi.media.content.schedule;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
+
+/**
+ * A broadcast of an item on a channel, with times in millis. Encoded into
+ * schedule documents as a single stored string so schedule hits can be
+ * decoded without loading the document source.
+ */
+public final class EsScheduleEntry {
+
+    private static final char SEPARATOR = '\t';
+
+    /**
+     * Encodes a broadcast as <code>channel\tstart\tend\tbroadcastId</code>,
+     * with an empty broadcast id if it has none.
+     */
+    public static String encode(String channel, long start, long end, @Nullable String broadcastId) {
+        return new StringBuilder(channel.length() + 64)
+            .append(channel).append(SEPARATOR)
+            .append(start).append(SEPARATOR)
+            .append(end).append(SEPARATOR)
+            .append(broadcastId != null ? broadcastId : "")
+            .toString();
+    }
+
+    /**
+     * Decodes an encoded broadcast of an item if it is on the given channel.
+     *
+     * @return the entry or null if the broadcast is on a different channel.
+     */
+    @Nullable
+    public static EsScheduleEntry decode(long itemId, String channel, String encoded) {
+        int channelEnd = channel.length();
+        if (encoded.length() <= channelEnd
+            || encoded.charAt(channelEnd) != SEPARATOR
+            || !encoded.startsWith(channel)) {
+            return null;
+        }
+        int startEnd = encoded.indexOf(SEPARATOR, channelEnd + 1);
+        int endEnd = encoded.indexOf(SEPARATOR, startEnd + 1);
+        long start = Long.parseLong(encoded.substring(channelEnd + 1, startEnd));
+        long end = Long.parseLong(encoded.substring(startEnd + 1, endEnd));
+        String broadcastId = endEnd + 1 < encoded.length() ? encoded.substring(endEnd + 1) : null;
+        return new EsScheduleEntry(itemId, broadcastId, start, end);
+    }
+
+    private final long itemId;
+    private final String broadcastId;
+    private final long start;
+    private final long end;
+
+    public EsScheduleEntry(long itemId, @Nullable String broadcastId, long start, long end) {
+        this.itemId = itemId;
+        this.broadcastId = broadcastId;
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getItemId() {
+        return itemId;
+    }
+
+    @Nullable
+    public String getBroadcastId() {
+        return broadcastId;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        }
+        if (that instanceof EsScheduleEntry) {
+            EsScheduleEntry other = (EsScheduleEntry) that;
+            return itemId == other.itemId
+                && start == other.start
+                && end == other.end
+                && Objects.equal(broadcastId, other.broadcastId);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(itemId, broadcastId, start, end);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("itemId", itemId)
+            .add("broadcastId", broadcastId)
+            .add("start", start)
+            .add("end", end)
+            .toString();
+    }
+}
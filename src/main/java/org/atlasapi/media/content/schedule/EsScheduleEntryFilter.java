@@ -0,0 +1,38 @@
+package org.atlasapi.media.content.schedule;
+
+import org.joda.time.Interval;
+
+/**
+ * Tests whether broadcasts, as start and end millis, are in the schedule
+ * for an interval, in the same way as {@link ScheduleBroadcastFilter} and
+ * the schedule query, without building an {@link Interval} per broadcast:
+ * <ul>
+ * <li>for an empty interval, broadcasts containing its instant.</li>
+ * <li>otherwise, broadcasts overlapping it.</li>
+ * </ul>
+ */
+final class EsScheduleEntryFilter {
+
+    public static EsScheduleEntryFilter valueOf(Interval interval) {
+        return new EsScheduleEntryFilter(interval.getStartMillis(), interval.getEndMillis());
+    }
+
+    private final long from;
+    private final long to;
+
+    private EsScheduleEntryFilter(long from, long to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public boolean apply(long start, long end) {
+        if (from == to) {
+            return start <= from && end > from;
+        }
+        return start < to && end > from;
+    }
+
+    public boolean apply(EsScheduleEntry entry) {
+        return apply(entry.getStart(), entry.getEnd());
+    }
+}
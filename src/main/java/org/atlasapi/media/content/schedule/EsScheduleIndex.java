@@ -1,35 +1,41 @@
 package org.atlasapi.media.content.schedule;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static org.atlasapi.media.content.EsBroadcast.CHANNEL;
-import static org.atlasapi.media.content.EsBroadcast.ID;
 import static org.atlasapi.media.content.EsBroadcast.TRANSMISSION_END_TIME;
 import static org.atlasapi.media.content.EsBroadcast.TRANSMISSION_TIME;
 import static org.atlasapi.media.content.EsContent.BROADCASTS;
 import static org.atlasapi.media.content.EsContent.CHILD_TYPE;
+import static org.atlasapi.media.content.EsContent.ID;
 import static org.atlasapi.media.content.EsContent.PUBLISHER;
+import static org.atlasapi.media.content.EsContent.SCHEDULE_ENTRIES;
 import static org.atlasapi.media.content.EsContent.TOP_LEVEL_TYPE;
 import static org.elasticsearch.index.query.FilterBuilders.andFilter;
 import static org.elasticsearch.index.query.FilterBuilders.nestedFilter;
 import static org.elasticsearch.index.query.FilterBuilders.rangeFilter;
 import static org.elasticsearch.index.query.FilterBuilders.termFilter;
-import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
-import static org.elasticsearch.index.query.QueryBuilders.filteredQuery;
-import static org.elasticsearch.index.query.QueryBuilders.nestedQuery;
-import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
-import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.elasticsearch.index.query.QueryBuilders.constantScoreQuery;
 
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
 
 import org.atlasapi.media.channel.Channel;
+import org.atlasapi.media.content.EsBroadcast;
+import org.atlasapi.media.content.EsScheduleBroadcast;
 import org.atlasapi.media.content.schedule.ScheduleRef.ScheduleRefEntry;
 import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.media.util.EsPersistenceException;
 import org.atlasapi.media.util.FutureSettingActionListener;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.index.query.FilterBuilder;
@@ -37,7 +43,9 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.sort.SortOrder;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.Days;
 import org.joda.time.Duration;
 import org.joda.time.Interval;
@@ -46,46 +54,62 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.metabroadcast.common.caching.BackgroundTask;
 import com.metabroadcast.common.time.Clock;
 import com.metabroadcast.common.time.DateTimeZones;
+import com.metabroadcast.common.time.SystemClock;
 
 public class EsScheduleIndex implements ScheduleIndex {
 
-    //defines the maximum number of entries per day.
+    //defines the size of the first page of hits per day, any further hits
+    //are fetched with a second request.
     private static final int SIZE_MULTIPLIER = 100;
+    //longer intervals bypass the schedule cache.
+    private static final int MAX_CACHED_DAYS = 7;
 
     public static final Logger log = LoggerFactory.getLogger(EsScheduleIndex.class);
     
-    private static final String BROADCAST_ID = BROADCASTS+"."+ID;
-    private static final String BROADCAST_CHANNEL = BROADCASTS+"."+CHANNEL;
-    private static final String BROADCAST_TRANSMISSION_TIME = BROADCASTS+"."+TRANSMISSION_TIME;
-    private static final String BROADCAST_TRANSMISSION_END_TIME = BROADCASTS+"."+TRANSMISSION_END_TIME;
-    
     private static final String[] FIELDS = new String[]{
         ID,
-        BROADCASTS,
-        BROADCAST_ID,
-        BROADCAST_CHANNEL,
-        BROADCAST_TRANSMISSION_TIME,
-        BROADCAST_TRANSMISSION_END_TIME,
+        SCHEDULE_ENTRIES,
+    };
+    
+    private static final String[] FLAT_FIELDS = new String[]{
+        EsScheduleBroadcast.ITEM_ID,
+        EsScheduleBroadcast.BROADCAST_ID,
+        EsScheduleBroadcast.TRANSMISSION_TIME,
+        EsScheduleBroadcast.TRANSMISSION_END_TIME,
     };
     
     private final Node esClient;
     private final EsScheduleIndexNames scheduleNames;
-    private final AtomicReference<Set<String>> existingIndices;
+    private final EsScheduleIndexRegistry existingIndices;
+    private final ScheduleDayCache scheduleCache;
+    private final EsScheduleLayout layout;
     private final BackgroundTask updateTask;
 
     public EsScheduleIndex(Node esClient, Clock clock) {
-        this.esClient = esClient;
-        this.scheduleNames = new EsScheduleIndexNames(esClient, clock);
-        this.existingIndices = new AtomicReference<Set<String>>();
-        this.updateTask = new BackgroundTask(Duration.standardHours(1), new Runnable() {
+        this(builder(esClient).withClock(clock));
+    }
+
+    private EsScheduleIndex(Builder builder) {
+        this.esClient = builder.esClient;
+        this.existingIndices = builder.existingIndices != null 
+            ? builder.existingIndices 
+            : new EsScheduleIndexRegistry(new EsScheduleIndexNames(esClient, builder.clock));
+        this.scheduleNames = existingIndices.scheduleNames();
+        this.scheduleCache = builder.scheduleCache;
+        this.layout = builder.layout;
+        this.updateTask = new BackgroundTask(Duration.standardMinutes(1), new Runnable() {
             @Override
             public void run() {
                 updateExistingIndices();
@@ -93,40 +117,327 @@ public class EsScheduleIndex implements ScheduleIndex {
         });
         updateTask.start(true);
     }
+
+    public static Builder builder(Node esClient) {
+        return new Builder(esClient);
+    }
+
+    /**
+     * Configures an {@link EsScheduleIndex}. Unless set, an index uses a
+     * {@link SystemClock}, a registry of the default schedule index names,
+     * no schedule cache and the {@link EsScheduleLayout#NESTED} layout.
+     */
+    public static final class Builder {
+
+        private final Node esClient;
+        private Clock clock = new SystemClock();
+        private EsScheduleIndexRegistry existingIndices;
+        private ScheduleDayCache scheduleCache;
+        private EsScheduleLayout layout = EsScheduleLayout.NESTED;
+
+        private Builder(Node esClient) {
+            this.esClient = checkNotNull(esClient);
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = checkNotNull(clock);
+            return this;
+        }
+
+        public Builder withScheduleIndices(EsScheduleIndexRegistry existingIndices) {
+            this.existingIndices = checkNotNull(existingIndices);
+            return this;
+        }
+
+        /**
+         * @param scheduleCache
+         *            schedules of up to a week are read through this cache.
+         */
+        public Builder withScheduleCache(ScheduleDayCache scheduleCache) {
+            this.scheduleCache = checkNotNull(scheduleCache);
+            return this;
+        }
+
+        /**
+         * @param layout
+         *            the layout of the schedule indices, as written by the
+         *            indexer.
+         */
+        public Builder withScheduleLayout(EsScheduleLayout layout) {
+            this.layout = checkNotNull(layout);
+            return this;
+        }
+
+        public EsScheduleIndex build() {
+            return new EsScheduleIndex(this);
+        }
+    }
     
     public void updateExistingIndices() {
-        this.existingIndices.set(scheduleNames.existingIndexNames());
+        this.existingIndices.reconcile();
     }
     
     @Override
     public ListenableFuture<ScheduleRef> resolveSchedule(Publisher publisher, Channel channel, Interval scheduleInterval) {
         String broadcastOn = channel.getCanonicalUri();
-        String pub = publisher.key();
-        
-        SettableFuture<SearchResponse> result = SettableFuture.create();
+        if (scheduleCache != null && daysIn(scheduleInterval) <= MAX_CACHED_DAYS) {
+            return cachedSchedule(publisher.key(), broadcastOn, scheduleInterval);
+        }
         
         String[] queryIndices = indicesFor(scheduleInterval);
         if (queryIndices == null ) { // there are no existing indices for this request
             return Futures.immediateFuture(ScheduleRef.forChannel(broadcastOn).build());
         }
-        esClient.client()
+        ListenableFuture<List<SearchResponse>> result = 
+            executeFully(scheduleSearch(queryIndices, publisher.key(), broadcastOn, scheduleInterval));
+        
+        return Futures.transform(Futures.transform(result, hitEntries(broadcastOn)), 
+            resultTransformer(broadcastOn, EsScheduleEntryFilter.valueOf(scheduleInterval)));
+    }
+
+    private ListenableFuture<ScheduleRef> cachedSchedule(String publisher, String broadcastOn, Interval scheduleInterval) {
+        long firstDay = ScheduleDayCache.dayOf(scheduleInterval.getStartMillis());
+        long lastDay = ScheduleDayCache.dayOf(Math.max(scheduleInterval.getStartMillis(), scheduleInterval.getEndMillis() - 1));
+        List<ListenableFuture<ImmutableList<EsScheduleEntry>>> days = Lists.newArrayList();
+        for (long day = firstDay; day <= lastDay; day += DateTimeConstants.MILLIS_PER_DAY) {
+            days.add(scheduleCache.day(publisher, broadcastOn, day, dayLoader(publisher, broadcastOn, day)));
+        }
+        return Futures.transform(Futures.allAsList(days), daysSlicer(broadcastOn, firstDay, scheduleInterval));
+    }
+
+    private Callable<ListenableFuture<ImmutableList<EsScheduleEntry>>> dayLoader(final String publisher, 
+            final String broadcastOn, final long day) {
+        return new Callable<ListenableFuture<ImmutableList<EsScheduleEntry>>>() {
+            @Override
+            public ListenableFuture<ImmutableList<EsScheduleEntry>> call() {
+                Interval dayInterval = new Interval(day, day + DateTimeConstants.MILLIS_PER_DAY, DateTimeZones.UTC);
+                String[] queryIndices = indicesFor(dayInterval);
+                if (queryIndices == null) {
+                    return Futures.immediateFuture(ImmutableList.<EsScheduleEntry>of());
+                }
+                ListenableFuture<List<SearchResponse>> result = 
+                    executeFully(scheduleSearch(queryIndices, publisher, broadcastOn, dayInterval));
+                return Futures.transform(Futures.transform(result, hitEntries(broadcastOn)), 
+                    dayEntries(dayInterval));
+            }
+        };
+    }
+
+    private Function<List<EsScheduleEntry>, ImmutableList<EsScheduleEntry>> dayEntries(final Interval day) {
+        return new Function<List<EsScheduleEntry>, ImmutableList<EsScheduleEntry>>() {
+            @Override
+            public ImmutableList<EsScheduleEntry> apply(@Nullable List<EsScheduleEntry> input) {
+                ImmutableList.Builder<EsScheduleEntry> entries = ImmutableList.builder();
+                for (EsScheduleEntry entry : input) {
+                    if (entry.getStart() < day.getEndMillis() && entry.getEnd() > day.getStartMillis()) {
+                        entries.add(entry);
+                    }
+                }
+                return entries.build();
+            }
+        };
+    }
+
+    private Function<List<ImmutableList<EsScheduleEntry>>, ScheduleRef> daysSlicer(final String channel, 
+            final long firstDay, Interval scheduleInterval) {
+        final EsScheduleEntryFilter filter = EsScheduleEntryFilter.valueOf(scheduleInterval);
+        return new Function<List<ImmutableList<EsScheduleEntry>>, ScheduleRef>() {
+            @Override
+            public ScheduleRef apply(@Nullable List<ImmutableList<EsScheduleEntry>> input) {
+                List<ScheduleRefEntry> entries = Lists.newArrayList();
+                long dayStart = firstDay;
+                for (ImmutableList<EsScheduleEntry> day : input) {
+                    for (EsScheduleEntry entry : day) {
+                        // broadcasts spanning midnight are in both days, only
+                        // take them from the first requested.
+                        if (dayStart != firstDay && entry.getStart() < dayStart) {
+                            continue;
+                        }
+                        if (filter.apply(entry)) {
+                            entries.add(refEntry(channel, entry));
+                        }
+                    }
+                    dayStart += DateTimeConstants.MILLIS_PER_DAY;
+                }
+                ScheduleRef.Builder refBuilder = ScheduleRef.forChannel(channel);
+                refBuilder.addEntries(entries);
+                return refBuilder.build();
+            }
+        };
+    }
+
+    /**
+     * Resolves the schedules of many channels for the same publisher and
+     * interval with a single multi-search request.
+     * 
+     * @return a future {@link ScheduleRef} for each distinct channel, keyed
+     *         by channel URI, which fails if the search for that channel
+     *         failed.
+     */
+    public Map<String, ListenableFuture<ScheduleRef>> resolveSchedules(Publisher publisher, 
+            Iterable<Channel> channels, Interval scheduleInterval) {
+        Set<String> channelUris = Sets.newLinkedHashSet();
+        for (Channel channel : channels) {
+            channelUris.add(channel.getCanonicalUri());
+        }
+        List<String> broadcastOns = ImmutableList.copyOf(channelUris);
+        ImmutableMap.Builder<String, ListenableFuture<ScheduleRef>> schedules = ImmutableMap.builder();
+        
+        // days missing from the cache are searched for one by one, rather
+        // than in the multi-search.
+        if (scheduleCache != null && daysIn(scheduleInterval) <= MAX_CACHED_DAYS) {
+            for (String broadcastOn : broadcastOns) {
+                schedules.put(broadcastOn, cachedSchedule(publisher.key(), broadcastOn, scheduleInterval));
+            }
+            return schedules.build();
+        }
+        
+        String[] queryIndices = indicesFor(scheduleInterval);
+        if (queryIndices == null || broadcastOns.isEmpty()) {
+            for (String broadcastOn : broadcastOns) {
+                schedules.put(broadcastOn, Futures.immediateFuture(ScheduleRef.forChannel(broadcastOn).build()));
+            }
+            return schedules.build();
+        }
+        
+        MultiSearchRequestBuilder multiSearch = esClient.client().prepareMultiSearch();
+        List<SearchRequestBuilder> searches = Lists.newArrayListWithCapacity(broadcastOns.size());
+        for (String broadcastOn : broadcastOns) {
+            SearchRequestBuilder search = scheduleSearch(queryIndices, publisher.key(), broadcastOn, scheduleInterval);
+            searches.add(search);
+            multiSearch.add(search);
+        }
+        SettableFuture<MultiSearchResponse> result = SettableFuture.create();
+        multiSearch.execute(FutureSettingActionListener.setting(result));
+        
+        EsScheduleEntryFilter filter = EsScheduleEntryFilter.valueOf(scheduleInterval);
+        for (int i = 0; i < broadcastOns.size(); i++) {
+            String broadcastOn = broadcastOns.get(i);
+            ListenableFuture<List<SearchResponse>> response = Futures.transform(
+                Futures.transform(result, itemResponse(i, broadcastOn)), 
+                remainingHits(searches.get(i)));
+            schedules.put(broadcastOn, Futures.transform(Futures.transform(response, hitEntries(broadcastOn)), 
+                resultTransformer(broadcastOn, filter)));
+        }
+        return schedules.build();
+    }
+
+    private Function<MultiSearchResponse, SearchResponse> itemResponse(final int i, final String broadcastOn) {
+        return new Function<MultiSearchResponse, SearchResponse>() {
+            @Override
+            public SearchResponse apply(@Nullable MultiSearchResponse input) {
+                MultiSearchResponse.Item item = input.getResponses()[i];
+                if (item.isFailure()) {
+                    throw new EsPersistenceException("Failed to resolve schedule for " 
+                        + broadcastOn + ": " + item.getFailureMessage());
+                }
+                return item.getResponse();
+            }
+        };
+    }
+
+    /* Both layouts sort on a single valued field so pages of hits are
+     * consistent: flat broadcasts by time, nested items, which have many
+     * times, by id. Flat broadcasts are routed by channel so only the
+     * channel's shard of each index is searched. Nested items have
+     * broadcasts on many channels so can't be routed.
+     */
+    private SearchRequestBuilder scheduleSearch(String[] queryIndices, String publisher, 
+            String broadcastOn, Interval scheduleInterval) {
+        if (layout == EsScheduleLayout.FLAT) {
+            return esClient.client()
+                .prepareSearch(queryIndices)
+                .setTypes(EsScheduleBroadcast.TYPE)
+                .setRouting(broadcastOn)
+                .setSearchType(SearchType.DEFAULT)
+                .setQuery(flatScheduleQueryFor(publisher, broadcastOn, scheduleInterval))
+                .addFields(FLAT_FIELDS)
+                .addSort(sortField(), SortOrder.ASC)
+                .setSize(SIZE_MULTIPLIER * daysIn(scheduleInterval));
+        }
+        return esClient.client()
             .prepareSearch(queryIndices)
             .setTypes(TOP_LEVEL_TYPE, CHILD_TYPE)
             .setSearchType(SearchType.DEFAULT)
-            .setQuery(scheduleQueryFor(pub, broadcastOn, scheduleInterval))
+            .setQuery(scheduleQueryFor(publisher, broadcastOn, scheduleInterval))
             .addFields(FIELDS)
-            .setSize(SIZE_MULTIPLIER * daysIn(scheduleInterval))
-            .execute(FutureSettingActionListener.setting(result));
-        
-        return Futures.transform(result, resultTransformer(broadcastOn, ScheduleBroadcastFilter.valueOf(scheduleInterval)));
+            .addSort(sortField(), SortOrder.ASC)
+            .setSize(SIZE_MULTIPLIER * daysIn(scheduleInterval));
+    }
+
+    private String sortField() {
+        return layout == EsScheduleLayout.FLAT ? EsScheduleBroadcast.TRANSMISSION_TIME : ID;
+    }
+
+    private ListenableFuture<List<SearchResponse>> executeFully(SearchRequestBuilder search) {
+        SettableFuture<SearchResponse> firstPage = SettableFuture.create();
+        search.execute(FutureSettingActionListener.setting(firstPage));
+        return Futures.transform(firstPage, remainingHits(search));
+    }
+
+    private AsyncFunction<SearchResponse, List<SearchResponse>> remainingHits(SearchRequestBuilder search) {
+        return remainingHits(search, ImmutableList.<SearchResponse>of());
+    }
+
+    /* If a page didn't hold every hit the rest are fetched by continuing
+     * from the sort key of its last hit, rather than from an offset which
+     * shifts as documents are written. Sort keys aren't unique so hits
+     * sharing the last key are fetched again, and dropped by hits().
+     */
+    private AsyncFunction<SearchResponse, List<SearchResponse>> remainingHits(final SearchRequestBuilder search, 
+            final List<SearchResponse> previousPages) {
+        return new AsyncFunction<SearchResponse, List<SearchResponse>>() {
+            @Override
+            public ListenableFuture<List<SearchResponse>> apply(SearchResponse page) {
+                List<SearchResponse> pages = ImmutableList.<SearchResponse>builder()
+                    .addAll(previousPages)
+                    .add(page)
+                    .build();
+                SearchHit[] hits = page.getHits().getHits();
+                long remaining = page.getHits().getTotalHits() - hits.length;
+                if (hits.length == 0 || remaining <= 0) {
+                    return Futures.immediateFuture(pages);
+                }
+                Object lastKey = hits[hits.length - 1].getSortValues()[0];
+                int sharingLastKey = 0;
+                for (int i = hits.length - 1; i >= 0 && lastKey.equals(hits[i].getSortValues()[0]); i--) {
+                    sharingLastKey++;
+                }
+                SettableFuture<SearchResponse> nextPage = SettableFuture.create();
+                search.setFilter(rangeFilter(sortField()).gte(lastKey))
+                    .setSize(Ints.saturatedCast(remaining + sharingLastKey))
+                    .execute(FutureSettingActionListener.setting(nextPage));
+                return Futures.transform(nextPage, remainingHits(search, pages));
+            }
+        };
+    }
+
+    private Iterable<SearchHit> hits(List<SearchResponse> responses) {
+        if (responses.size() == 1) {
+            return responses.get(0).getHits();
+        }
+        Set<String> seen = Sets.newHashSet();
+        List<SearchHit> hits = Lists.newArrayList();
+        for (SearchResponse response : responses) {
+            for (SearchHit hit : response.getHits()) {
+                if (seen.add(hit.getIndex() + "/" + hit.getType() + "/" + hit.getId())) {
+                    hits.add(hit);
+                }
+            }
+        }
+        return hits;
     }
     
-    /* Take the intersection here to avoid missing index problems.
+    /* Take the intersection here to avoid missing index problems. The end
+     * of the interval is exclusive so an interval ending at midnight doesn't
+     * query the next day's partition.
      */
     private String[] indicesFor(Interval interval) {
+        DateTime lastInstant = new DateTime(
+            Math.max(interval.getStartMillis(), interval.getEndMillis() - 1), DateTimeZones.UTC);
         Set<String> indices = Sets.intersection(
-            existingIndices.get(),
-            scheduleNames.queryingNamesFor(interval.getStart(), interval.getEnd()) 
+            existingIndices.existingIndices(),
+            scheduleNames.queryingNamesFor(interval.getStart(), lastInstant) 
         );
         if (indices.isEmpty()) {
             return null;
@@ -138,30 +449,33 @@ public class EsScheduleIndex implements ScheduleIndex {
         return Math.max(1, Days.daysIn(scheduleInterval).getDays());
     }
 
-    private QueryBuilder scheduleQueryFor(String publisher, String broadcastOn, Interval scheduleInterval) {
-        DateTime looseFrom = scheduleInterval.getStart().minusHours(12);
-        DateTime looseTo = scheduleInterval.getEnd().plusHours(12);
-
-        return filteredQuery(
-            boolQuery()
-                .must(termQuery(PUBLISHER, publisher))
-                .must(nestedQuery(BROADCASTS,
-                    boolQuery()
-                        .must(termQuery(CHANNEL, broadcastOn))
-                        .must(rangeQuery(TRANSMISSION_TIME).gte(looseFrom.toDate()))
-                        .must(rangeQuery(TRANSMISSION_END_TIME).lte(looseTo.toDate()))
-                )),
+    /* A pure filter: matching schedule documents aren't scored, and the
+     * filter over the exact interval is cached.
+     */
+    static QueryBuilder scheduleQueryFor(String publisher, String broadcastOn, Interval scheduleInterval) {
+        return constantScoreQuery(andFilter(
+            termFilter(PUBLISHER, publisher),
             nestedFilter(BROADCASTS, andFilter(
                 termFilter(CHANNEL, broadcastOn),
-                filterForInterval(scheduleInterval)
+                filterForInterval(scheduleInterval, 
+                    scheduleInterval.getStart().toDate(), scheduleInterval.getEnd().toDate())
             ))
-        );
+        ).cache(true));
     }
 
-    private FilterBuilder filterForInterval(Interval scheduleInterval) {
-        Date fromDate = scheduleInterval.getStart().toDate();
-        Date toDate = scheduleInterval.getEnd().toDate();
-        
+    static QueryBuilder flatScheduleQueryFor(String publisher, String broadcastOn, Interval scheduleInterval) {
+        return constantScoreQuery(andFilter(
+            termFilter(EsScheduleBroadcast.PUBLISHER, publisher),
+            termFilter(EsScheduleBroadcast.CHANNEL, broadcastOn),
+            filterForInterval(scheduleInterval, 
+                scheduleInterval.getStartMillis(), scheduleInterval.getEndMillis())
+        ).cache(true));
+    }
+
+    /* Nested broadcasts store dates, flat broadcasts millis, so the bounds
+     * are passed in the form of the fields being filtered.
+     */
+    private static FilterBuilder filterForInterval(Interval scheduleInterval, Object fromDate, Object toDate) {
         if (Duration.ZERO.equals(scheduleInterval.toDuration())) {
             return andFilter(
                 rangeFilter(TRANSMISSION_TIME).lte(fromDate),
@@ -177,55 +491,142 @@ public class EsScheduleIndex implements ScheduleIndex {
         );
     }
 
-    private Function<SearchResponse, ScheduleRef> resultTransformer(final String channel, final ScheduleBroadcastFilter scheduleBroadcastFilter) {
-        return new Function<SearchResponse, ScheduleRef>() {
+    /* Entries are filtered on their millis, DateTimes are only built for
+     * those in the schedule.
+     */
+    private Function<List<EsScheduleEntry>, ScheduleRef> resultTransformer(final String channel, final EsScheduleEntryFilter filter) {
+        return new Function<List<EsScheduleEntry>, ScheduleRef>() {
             @Override
-            public ScheduleRef apply(@Nullable SearchResponse input) {
+            public ScheduleRef apply(@Nullable List<EsScheduleEntry> input) {
+                List<ScheduleRefEntry> entries = Lists.newArrayList();
+                for (EsScheduleEntry entry : input) {
+                    if (filter.apply(entry)) {
+                        entries.add(refEntry(channel, entry));
+                    }
+                }
                 ScheduleRef.Builder refBuilder = ScheduleRef.forChannel(channel);
+                refBuilder.addEntries(entries);
+                return refBuilder.build();
+            }
+        };
+    }
+
+    /* Documents written before schedule entries were stored have none, so
+     * until they're reindexed their sources are fetched and their
+     * broadcasts decoded instead.
+     */
+    private AsyncFunction<List<SearchResponse>, List<EsScheduleEntry>> hitEntries(final String channel) {
+        return new AsyncFunction<List<SearchResponse>, List<EsScheduleEntry>>() {
+            @Override
+            public ListenableFuture<List<EsScheduleEntry>> apply(List<SearchResponse> input) {
+                final List<EsScheduleEntry> entries = Lists.newArrayList();
+                MultiGetRequest withoutEntries = new MultiGetRequest();
                 int hits = 0;
-                for (SearchHit hit : input.getHits()) {
+                int hitsWithoutEntries = 0;
+                for (SearchHit hit : hits(input)) {
                     hits++;
-                    refBuilder.addEntries(validEntries(hit,channel, scheduleBroadcastFilter));
+                    if (layout == EsScheduleLayout.NESTED && hit.field(SCHEDULE_ENTRIES) == null) {
+                        withoutEntries.add(hit.getIndex(), hit.getType(), hit.getId());
+                        hitsWithoutEntries++;
+                    } else {
+                        entries.addAll(channelEntries(hit, channel));
+                    }
                 }
-                ScheduleRef ref = refBuilder.build();
-                log.info("{}: {} hits => {} entries, ({} queries, {}ms)", new Object[]{Thread.currentThread().getId(), hits, ref.getScheduleEntries().size(), 1, input.getTookInMillis()});
-                return ref;
+                long took = 0;
+                for (SearchResponse response : input) {
+                    took += response.getTookInMillis();
+                }
+                log.info("{}: {} hits, {} without entries ({} queries, {}ms)", new Object[]{Thread.currentThread().getId(), hits, hitsWithoutEntries, input.size(), took});
+                if (hitsWithoutEntries == 0) {
+                    return Futures.immediateFuture(distinct(entries));
+                }
+                SettableFuture<MultiGetResponse> sources = SettableFuture.create();
+                esClient.client().multiGet(withoutEntries, FutureSettingActionListener.setting(sources));
+                return Futures.transform(sources, new Function<MultiGetResponse, List<EsScheduleEntry>>() {
+                    @Override
+                    public List<EsScheduleEntry> apply(@Nullable MultiGetResponse sources) {
+                        entries.addAll(broadcastEntries(sources, channel));
+                        return distinct(entries);
+                    }
+                });
             }
         };
     }
-    
-    private Iterable<ScheduleRefEntry> validEntries(SearchHit hit, String channel, ScheduleBroadcastFilter scheduleBroadcastFilter) {
-        ImmutableList.Builder<ScheduleRefEntry> entries = ImmutableList.builder();
-        
-        SearchHitField broadcastsHitField = hit.field(BROADCASTS);
-        Long id = hit.field(ID).<Number>value().longValue();
-        List<Object> fieldValues = broadcastsHitField.getValues();
-        for (List<?> fieldValue : Iterables.filter(fieldValues, List.class)) {
-            for (Map<Object,Object> broadcast : Iterables.filter(fieldValue, Map.class)) {
-                ScheduleRefEntry validRef = getValidRef(id, channel, scheduleBroadcastFilter, broadcast);
-                if (validRef != null) {
-                    entries.add(validRef);
-                }
+
+    private ScheduleRefEntry refEntry(String channel, EsScheduleEntry entry) {
+        return new ScheduleRefEntry(entry.getItemId(), channel, 
+            new DateTime(entry.getStart(), DateTimeZones.UTC), 
+            new DateTime(entry.getEnd(), DateTimeZones.UTC), 
+            entry.getBroadcastId());
+    }
+
+    private List<EsScheduleEntry> channelEntries(SearchHit hit, String channel) {
+        if (layout == EsScheduleLayout.FLAT) {
+            return ImmutableList.of(flatEntry(hit));
+        }
+        SearchHitField encodedEntries = hit.field(SCHEDULE_ENTRIES);
+        if (encodedEntries == null) {
+            return ImmutableList.of();
+        }
+        long id = hit.field(ID).<Number>value().longValue();
+        List<EsScheduleEntry> entries = Lists.newArrayListWithCapacity(encodedEntries.getValues().size());
+        for (Object encoded : encodedEntries.getValues()) {
+            EsScheduleEntry entry = EsScheduleEntry.decode(id, channel, (String) encoded);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /* A broadcast is written to every index whose partition it overlaps,
+     * so a search of several tiers' indices can hit it more than once.
+     * Entries are all on one channel so are distinct by item and start.
+     */
+    private List<EsScheduleEntry> distinct(List<EsScheduleEntry> entries) {
+        Set<List<Long>> seen = Sets.newHashSetWithExpectedSize(entries.size());
+        List<EsScheduleEntry> distinct = Lists.newArrayListWithCapacity(entries.size());
+        for (EsScheduleEntry entry : entries) {
+            if (seen.add(ImmutableList.of(entry.getItemId(), entry.getStart()))) {
+                distinct.add(entry);
             }
-        }        
-        return entries.build();
+        }
+        return distinct;
     }
 
-    private ScheduleRefEntry getValidRef(Long id, String channel, ScheduleBroadcastFilter scheduleBroadcastFilter, Map<Object, Object> broadcast) {
-        String broadcastChannel = (String) broadcast.get(CHANNEL);
-        if (channel.equals(broadcastChannel)) {
-            DateTime start = new DateTime(broadcast.get(TRANSMISSION_TIME)).toDateTime(DateTimeZones.UTC);
-            DateTime end = new DateTime(broadcast.get(TRANSMISSION_END_TIME)).toDateTime(DateTimeZones.UTC);
-            if (valid(scheduleBroadcastFilter, start, end)) {
-                String broadcastId = (String) broadcast.get(BROADCAST_ID);
-                return new ScheduleRefEntry(id, channel, start, end, broadcastId);
+    private List<EsScheduleEntry> broadcastEntries(MultiGetResponse sources, String channel) {
+        List<EsScheduleEntry> entries = Lists.newArrayList();
+        for (MultiGetItemResponse item : sources) {
+            if (item.isFailed() || !item.getResponse().isExists()) {
+                continue;
+            }
+            Map<String, Object> source = item.getResponse().getSource();
+            Object broadcasts = source.get(BROADCASTS);
+            if (!(broadcasts instanceof List)) {
+                continue;
+            }
+            long id = ((Number) source.get(ID)).longValue();
+            for (Map<?, ?> broadcast : Iterables.filter((List<?>) broadcasts, Map.class)) {
+                if (channel.equals(broadcast.get(CHANNEL))) {
+                    entries.add(new EsScheduleEntry(id, 
+                        (String) broadcast.get(EsBroadcast.ID), 
+                        new DateTime(broadcast.get(TRANSMISSION_TIME)).getMillis(), 
+                        new DateTime(broadcast.get(TRANSMISSION_END_TIME)).getMillis()
+                    ));
+                }
             }
         }
-        return null;
+        return entries;
     }
 
-    private boolean valid(ScheduleBroadcastFilter scheduleBroadcastFilter, DateTime start, DateTime end) {
-        return scheduleBroadcastFilter.apply(new Interval(start, end));
+    private EsScheduleEntry flatEntry(SearchHit hit) {
+        SearchHitField broadcastId = hit.field(EsScheduleBroadcast.BROADCAST_ID);
+        return new EsScheduleEntry(
+            hit.field(EsScheduleBroadcast.ITEM_ID).<Number>value().longValue(),
+            broadcastId != null ? broadcastId.<String>value() : null,
+            hit.field(EsScheduleBroadcast.TRANSMISSION_TIME).<Number>value().longValue(),
+            hit.field(EsScheduleBroadcast.TRANSMISSION_END_TIME).<Number>value().longValue()
+        );
     }
 
 }
@@ -0,0 +1,166 @@
+package org.atlasapi.media.content.schedule;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Set;
+
+import org.elasticsearch.action.admin.indices.segments.IndexSegments;
+import org.elasticsearch.action.admin.indices.segments.IndexShardSegments;
+import org.elasticsearch.action.admin.indices.segments.ShardSegments;
+import org.elasticsearch.node.Node;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.metabroadcast.common.time.Clock;
+
+/**
+ * Manages day, week and month schedule indices as they age:
+ * <ul>
+ * <li>once a partition has finished its index is optimized to a single
+ * segment, unless it already is.</li>
+ * <li>once a partition is older than the lookback of its tier, plus a grace
+ * month, it is only ever queried through coarser indices, into which all
+ * its content is also written, so its index is closed or deleted and
+ * deregistered.</li>
+ * </ul>
+ * In dry-run mode the actions are planned and logged but not executed.
+ */
+public class EsScheduleIndexLifecycle implements Runnable {
+
+    public enum Retirement {
+        CLOSE,
+        DELETE
+    }
+
+    private final Logger log = LoggerFactory.getLogger(EsScheduleIndexLifecycle.class);
+
+    private final Node esClient;
+    private final Clock clock;
+    private final EsScheduleIndexRegistry registry;
+    private final Retirement retirement;
+    private final boolean dryRun;
+    private final Set<String> optimized = Sets.newSetFromMap(Maps.<String, Boolean>newConcurrentMap());
+
+    public EsScheduleIndexLifecycle(Node esClient, Clock clock, EsScheduleIndexRegistry registry, 
+            Retirement retirement, boolean dryRun) {
+        this.esClient = checkNotNull(esClient);
+        this.clock = checkNotNull(clock);
+        this.registry = checkNotNull(registry);
+        this.retirement = checkNotNull(retirement);
+        this.dryRun = dryRun;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Plan plan = plan(registry.existingIndices());
+            log.info("{}schedule index lifecycle: {}", dryRun ? "(dry run) " : "", plan);
+            if (!dryRun) {
+                apply(plan);
+            }
+        } catch (Exception e) {
+            log.error("Schedule index lifecycle failed", e);
+        }
+    }
+
+    Plan plan(Set<String> indices) {
+        DateTime now = clock.now();
+        EsScheduleIndexNames names = registry.scheduleNames();
+        ImmutableSet.Builder<String> toOptimize = ImmutableSet.builder();
+        ImmutableSet.Builder<String> toRetire = ImmutableSet.builder();
+        for (String index : indices) {
+            Long partitionEnd = EsScheduleIndexNames.partitionEnd(index);
+            if (partitionEnd == null) {
+                continue;
+            }
+            DateTime queriedUntil = names.queriedUntil(index);
+            if (queriedUntil != null && !queriedUntil.plusMonths(1).isAfter(now)) {
+                // only once there's a year index to query instead.
+                if (indices.contains(EsScheduleIndexNames.yearIndexOf(index))) {
+                    toRetire.add(index);
+                }
+            } else if (partitionEnd <= now.getMillis() && !optimized.contains(index)) {
+                toOptimize.add(index);
+            }
+        }
+        return new Plan(toOptimize.build(), toRetire.build());
+    }
+
+    private void apply(Plan plan) {
+        for (String index : plan.toOptimize) {
+            if (singleSegment(index)) {
+                optimized.add(index);
+                continue;
+            }
+            log.info("Optimizing {}", index);
+            esClient.client().admin().indices().prepareOptimize(index)
+                .setMaxNumSegments(1)
+                .setWaitForMerge(false)
+                .execute().actionGet();
+            optimized.add(index);
+        }
+        for (String index : plan.toRetire) {
+            // deregistered first so no more queries are sent to it.
+            registry.deregister(index);
+            if (retirement == Retirement.DELETE) {
+                log.info("Deleting {}", index);
+                esClient.client().admin().indices().prepareDelete(index).execute().actionGet();
+            } else {
+                log.info("Closing {}", index);
+                esClient.client().admin().indices().prepareClose(index).execute().actionGet();
+            }
+            optimized.remove(index);
+        }
+    }
+
+    /* Which indices have been optimized is only remembered until a restart,
+     * so segments are counted rather than merging the index again.
+     */
+    private boolean singleSegment(String index) {
+        IndexSegments segments = esClient.client().admin().indices().prepareSegments(index)
+            .execute().actionGet().getIndices().get(index);
+        if (segments == null) {
+            return false;
+        }
+        for (IndexShardSegments shard : segments) {
+            for (ShardSegments copy : shard) {
+                if (copy.getSegments().size() > 1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static final class Plan {
+
+        private final ImmutableSet<String> toOptimize;
+        private final ImmutableSet<String> toRetire;
+
+        Plan(ImmutableSet<String> toOptimize, ImmutableSet<String> toRetire) {
+            this.toOptimize = toOptimize;
+            this.toRetire = toRetire;
+        }
+
+        ImmutableSet<String> toOptimize() {
+            return toOptimize;
+        }
+
+        ImmutableSet<String> toRetire() {
+            return toRetire;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                .add("optimize", toOptimize)
+                .add("retire", toRetire)
+                .toString();
+        }
+    }
+}
@@ -1,89 +1,401 @@
 package org.atlasapi.media.content.schedule;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
-import static org.elasticsearch.client.Requests.indicesStatusRequest;
 
-import org.elasticsearch.action.admin.indices.status.IndicesStatusRequest;
-import org.elasticsearch.action.admin.indices.status.IndicesStatusResponse;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.node.Node;
+import org.joda.time.Chronology;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.IllegalFieldValueException;
+import org.joda.time.Period;
+import org.joda.time.ReadablePeriod;
+import org.joda.time.chrono.ISOChronology;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
+import com.google.common.primitives.Ints;
 import com.metabroadcast.common.time.Clock;
 import com.metabroadcast.common.time.DateTimeZones;
 
+/**
+ * Names the schedule indices content is written to and queried from.
+ * Content is always written to year indices. Finer indices are configured
+ * as {@link Tier}s, finest first, each written for recent and future
+ * content. By default there is a single tier of month indices for content
+ * from up to a year ago.
+ */
 public class EsScheduleIndexNames {
 
     private static final String prefix = "schedule";
     private static final String yearFormat = prefix+"-%04d";
     private static final String monthFormat = prefix+"-%04d-%02d";
+    private static final String weekFormat = prefix+"-%04d-w%02d";
+    private static final String dayFormat = prefix+"-%04d-%02d-%02d";
+    private static final int yearNameLength = (prefix+"-0000").length();
+
+    public static final ImmutableList<Tier> DEFAULT_TIERS = ImmutableList.of(
+        Tier.of(Granularity.MONTH, Period.years(1)));
+    public static final int MAX_QUERIED_PARTITIONS = 31;
+
+    private static final Chronology UTC = ISOChronology.getInstanceUTC();
+    private static final long DAY_MILLIS = DateTimeConstants.MILLIS_PER_DAY;
+    private static final long WEEK_MILLIS = DateTimeConstants.MILLIS_PER_WEEK;
+    // 1970-01-01 was a Thursday.
+    private static final long FIRST_MONDAY_MILLIS = -3 * DAY_MILLIS;
+    
+    private static final int FIRST_NAMED_YEAR = 1900;
+    private static final int LAST_NAMED_YEAR = 2200;
+    private static final String[] YEAR_NAMES = new String[LAST_NAMED_YEAR - FIRST_NAMED_YEAR];
+    private static final String[] MONTH_NAMES = new String[YEAR_NAMES.length * 12];
+    
+    static {
+        for (int year = FIRST_NAMED_YEAR; year < LAST_NAMED_YEAR; year++) {
+            int yearOffset = year - FIRST_NAMED_YEAR;
+            YEAR_NAMES[yearOffset] = formatYearIndex(year);
+            for (int monthOfYear = 1; monthOfYear <= 12; monthOfYear++) {
+                MONTH_NAMES[yearOffset * 12 + monthOfYear - 1] = formatMonthIndex(year, monthOfYear);
+            }
+        }
+    }
     
     private final Node esClient;
     private final Clock clock;
+    private final ImmutableList<Tier> tiers;
 
     public EsScheduleIndexNames(Node esClient, Clock clock) {
+        this(esClient, clock, DEFAULT_TIERS);
+    }
+
+    public EsScheduleIndexNames(Node esClient, Clock clock, List<Tier> tiers) {
         this.esClient = checkNotNull(esClient);
         this.clock = checkNotNull(clock);
+        this.tiers = ImmutableList.copyOf(tiers);
+        for (int i = 1; i < this.tiers.size(); i++) {
+            checkArgument(this.tiers.get(i - 1).granularity.compareTo(this.tiers.get(i).granularity) < 0,
+                "tiers must be finest first: %s", tiers);
+        }
     }
     
+    /* Only the cluster metadata is needed so routing table, nodes and
+     * blocks are filtered out of the cluster state response. Closed indices
+     * can't be searched so aren't included.
+     */
     public ImmutableSet<String> existingIndexNames() {
-        IndicesStatusRequest req = indicesStatusRequest((String[]) null);
-        IndicesStatusResponse statuses = esClient.client().admin()
-                .indices().status(req).actionGet();
+        ClusterStateResponse state = esClient.client().admin().cluster()
+                .prepareState()
+                .setFilterRoutingTable(true)
+                .setFilterNodes(true)
+                .setFilterBlocks(true)
+                .execute().actionGet();
         Builder<String> names = ImmutableSet.builder();
-        for (String index : statuses.getIndices().keySet()) {
-            if (index.startsWith(prefix)) {
-                names.add(index);
+        for (IndexMetaData index : state.getState().metaData()) {
+            if (index.index().startsWith(prefix) && index.state() == IndexMetaData.State.OPEN) {
+                names.add(index.index());
             }
         }
         return names.build();
     }
     
+    /**
+     * Content is always written to the year indices of its start and end.
+     * It's also written to the partitions of each tier whose lookback it
+     * overlaps, every partition overlapping [start, end), or start's
+     * partition if empty.
+     */
     public ImmutableSet<String> indexingNamesFor(DateTime start, DateTime end) {
-        start = start.withZone(DateTimeZones.UTC);
-        end = end.withZone(DateTimeZones.UTC);
+        long startMillis = start.getMillis();
+        long endMillis = end.getMillis();
         
         Builder<String> names = ImmutableSet.builder();
-        names.add(yearIndex(start)).add(yearIndex(end));
+        names.add(yearIndex(yearOf(startMillis))).add(yearIndex(yearOf(endMillis)));
         
-        DateTime aYearAgo = clock.now().minusYears(1);
-        if (start.isAfter(aYearAgo) || end.isAfter(aYearAgo)) {
-            for (DateTime cur = start; cur.isBefore(end); cur = cur.plusMonths(1)) {
-                names.add(monthIndex(cur));
+        DateTime now = clock.now();
+        for (Tier tier : tiers) {
+            long horizon = now.minus(tier.lookback).getMillis();
+            if (startMillis > horizon || endMillis > horizon) {
+                tier.granularity.addNames(names, startMillis, Math.max(startMillis, endMillis - 1));
             }
         }
         
         return names.build();
     }
     
+    /**
+     * Queries the finest tier whose lookback contains the start of the
+     * interval, skipping tiers other than the last on which it spans more
+     * than {@link #MAX_QUERIED_PARTITIONS} partitions. Otherwise queries the
+     * year indices.
+     */
     public ImmutableSet<String> queryingNamesFor(DateTime start, DateTime end) {
-        start = start.withZone(DateTimeZones.UTC);
-        end = end.withZone(DateTimeZones.UTC);
+        long startMillis = start.getMillis();
+        long endMillis = end.getMillis();
         
         Builder<String> names = ImmutableSet.builder();
 
-        DateTime aYearAgo = clock.now().minusYears(1);
-        if (start.isAfter(aYearAgo)) {
-            for (DateTime cur = start; cur.isBefore(end) || cur.isEqual(end); cur = cur.plusMonths(1)) {
-                names.add(monthIndex(cur));
-            }
-        } else {
-            for (DateTime cur = start; cur.isBefore(end) || cur.isEqual(end); cur = cur.plusYears(1)) {
-                names.add(yearIndex(cur));
+        DateTime now = clock.now();
+        for (int i = 0; i < tiers.size(); i++) {
+            Tier tier = tiers.get(i);
+            if (startMillis > now.minus(tier.lookback).getMillis()
+                && (i == tiers.size() - 1 
+                    || tier.granularity.partitionsIn(startMillis, endMillis) <= MAX_QUERIED_PARTITIONS)) {
+                tier.granularity.addNames(names, startMillis, endMillis);
+                return names.build();
             }
         }
-        
+        Granularity.YEAR.addNames(names, startMillis, endMillis);
         return names.build();
     }
 
-    private String monthIndex(DateTime dateTime) {
-        return String.format(monthFormat, 
-                dateTime.getYear(), dateTime.getMonthOfYear());
+    /**
+     * @return the time until which an index below year granularity may be
+     *         queried: the end of its partition plus the lookback of its
+     *         tier. Null for year indices and indices of granularities not
+     *         configured.
+     */
+    @Nullable
+    public DateTime queriedUntil(String index) {
+        Partition partition = Partition.parse(index);
+        if (partition == null) {
+            return null;
+        }
+        for (Tier tier : tiers) {
+            if (tier.granularity == partition.granularity) {
+                return new DateTime(partition.end(), DateTimeZones.UTC).plus(tier.lookback);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the end of the partition covered by an index below year
+     *         granularity, in millis, or null if the name isn't that of
+     *         such an index.
+     */
+    @Nullable
+    public static Long partitionEnd(String index) {
+        Partition partition = Partition.parse(index);
+        return partition != null ? partition.end() : null;
+    }
+
+    /**
+     * @return the name of the year index named in a schedule index name.
+     *         For week indices this is the ISO week-year.
+     */
+    public static String yearIndexOf(String index) {
+        return index.substring(0, yearNameLength);
+    }
+
+    /**
+     * The size of the partitions of a tier of schedule indices. Partitions
+     * are numbered consecutively and weeks are ISO weeks, starting on
+     * Monday.
+     */
+    public enum Granularity {
+        DAY {
+            @Override
+            int partitionOf(long millis) {
+                return Ints.checkedCast(floorDiv(millis, DAY_MILLIS));
+            }
+
+            @Override
+            long startOf(int partition) {
+                return partition * DAY_MILLIS;
+            }
+
+            @Override
+            String name(int partition) {
+                long start = startOf(partition);
+                return String.format(dayFormat, 
+                    UTC.year().get(start), UTC.monthOfYear().get(start), UTC.dayOfMonth().get(start));
+            }
+        },
+        WEEK {
+            @Override
+            int partitionOf(long millis) {
+                return Ints.checkedCast(floorDiv(millis - FIRST_MONDAY_MILLIS, WEEK_MILLIS));
+            }
+
+            @Override
+            long startOf(int partition) {
+                return FIRST_MONDAY_MILLIS + partition * WEEK_MILLIS;
+            }
+
+            @Override
+            String name(int partition) {
+                long start = startOf(partition);
+                return String.format(weekFormat, UTC.weekyear().get(start), UTC.weekOfWeekyear().get(start));
+            }
+        },
+        MONTH {
+            @Override
+            int partitionOf(long millis) {
+                return monthOf(millis);
+            }
+
+            @Override
+            long startOf(int partition) {
+                return UTC.getDateTimeMillis(partition / 12, partition % 12 + 1, 1, 0);
+            }
+
+            @Override
+            String name(int partition) {
+                return monthIndex(partition);
+            }
+        },
+        YEAR {
+            @Override
+            int partitionOf(long millis) {
+                return yearOf(millis);
+            }
+
+            @Override
+            long startOf(int partition) {
+                return UTC.getDateTimeMillis(partition, 1, 1, 0);
+            }
+
+            @Override
+            String name(int partition) {
+                return yearIndex(partition);
+            }
+        };
+
+        abstract int partitionOf(long millis);
+
+        abstract long startOf(int partition);
+
+        abstract String name(int partition);
+
+        /* every partition containing an instant in [start, end]. */
+        void addNames(Builder<String> names, long start, long end) {
+            int last = partitionOf(end);
+            for (int partition = partitionOf(start); partition <= last; partition++) {
+                names.add(name(partition));
+            }
+        }
+
+        int partitionsIn(long start, long end) {
+            return partitionOf(end) - partitionOf(start) + 1;
+        }
+    }
+
+    /**
+     * A granularity of schedule index, written for content overlapping the
+     * period from <code>lookback</code> before now onwards. The lookback
+     * extends only into the past so that content which is queried in a
+     * tier has always been written to it.
+     */
+    public static final class Tier {
+
+        public static Tier of(Granularity granularity, ReadablePeriod lookback) {
+            return new Tier(granularity, lookback);
+        }
+
+        private final Granularity granularity;
+        private final ReadablePeriod lookback;
+
+        private Tier(Granularity granularity, ReadablePeriod lookback) {
+            checkArgument(granularity != Granularity.YEAR, "year indices are always written");
+            this.granularity = checkNotNull(granularity);
+            this.lookback = checkNotNull(lookback);
+        }
+
+        @Override
+        public String toString() {
+            return granularity + "/" + lookback;
+        }
+    }
+
+    private static final class Partition {
+
+        private static final Pattern NAME = Pattern.compile(
+            prefix + "-(\\d{4})(?:-(\\d{2})(?:-(\\d{2}))?|-w(\\d{2}))");
+
+        @Nullable
+        static Partition parse(String index) {
+            Matcher matcher = NAME.matcher(index);
+            if (!matcher.matches()) {
+                return null;
+            }
+            int year = Integer.parseInt(matcher.group(1));
+            try {
+                if (matcher.group(4) != null) {
+                    long monday = UTC.dayOfWeek().set(UTC.weekOfWeekyear().set(
+                        UTC.weekyear().set(0L, year), Integer.parseInt(matcher.group(4))), 
+                        DateTimeConstants.MONDAY);
+                    return new Partition(Granularity.WEEK, Granularity.WEEK.partitionOf(monday));
+                }
+                int monthOfYear = Integer.parseInt(matcher.group(2));
+                if (matcher.group(3) != null) {
+                    long day = UTC.getDateTimeMillis(year, monthOfYear, Integer.parseInt(matcher.group(3)), 0);
+                    return new Partition(Granularity.DAY, Granularity.DAY.partitionOf(day));
+                }
+                return new Partition(Granularity.MONTH, 
+                    Granularity.MONTH.partitionOf(UTC.getDateTimeMillis(year, monthOfYear, 1, 0)));
+            } catch (IllegalFieldValueException e) {
+                return null;
+            }
+        }
+
+        private final Granularity granularity;
+        private final int partition;
+
+        private Partition(Granularity granularity, int partition) {
+            this.granularity = granularity;
+            this.partition = partition;
+        }
+
+        long end() {
+            return granularity.startOf(partition + 1);
+        }
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return dividend % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    /* Months are counted from year 0, i.e. year * 12 + zero-based month,
+     * computed directly from the UTC millis without building DateTimes.
+     */
+    private static int monthOf(long millis) {
+        return yearOf(millis) * 12 + UTC.monthOfYear().get(millis) - 1;
+    }
+
+    private static int yearOf(long millis) {
+        return UTC.year().get(millis);
+    }
+
+    private static String monthIndex(int month) {
+        int year = month / 12;
+        if (FIRST_NAMED_YEAR <= year && year < LAST_NAMED_YEAR) {
+            return MONTH_NAMES[month - FIRST_NAMED_YEAR * 12];
+        }
+        return formatMonthIndex(year, month % 12 + 1);
+    }
+
+    private static String yearIndex(int year) {
+        if (FIRST_NAMED_YEAR <= year && year < LAST_NAMED_YEAR) {
+            return YEAR_NAMES[year - FIRST_NAMED_YEAR];
+        }
+        return formatYearIndex(year);
+    }
+
+    private static String formatMonthIndex(int year, int monthOfYear) {
+        return String.format(monthFormat, year, monthOfYear);
     }
 
-    private String yearIndex(DateTime dateTime) {
-        return String.format(yearFormat, dateTime.getYear());
+    private static String formatYearIndex(int year) {
+        return String.format(yearFormat, year);
     }
 
 }
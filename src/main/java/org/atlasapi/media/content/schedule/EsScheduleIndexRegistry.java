@@ -0,0 +1,70 @@
+package org.atlasapi.media.content.schedule;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Tracks which schedule indices exist. Shared between the indexer, which
+ * registers indices as soon as it creates them, and the schedule index,
+ * which only queries indices known to exist. Periodically
+ * {@link #reconcile()}d against the cluster metadata to pick up indices
+ * created, closed or deleted elsewhere.
+ */
+public class EsScheduleIndexRegistry {
+
+    private final EsScheduleIndexNames scheduleNames;
+
+    private final Object lock = new Object();
+    private volatile ImmutableSet<String> indices = ImmutableSet.of();
+    private Set<String> registeredDuringReconcile = Sets.newHashSet();
+
+    public EsScheduleIndexRegistry(EsScheduleIndexNames scheduleNames) {
+        this.scheduleNames = checkNotNull(scheduleNames);
+    }
+
+    public EsScheduleIndexNames scheduleNames() {
+        return scheduleNames;
+    }
+
+    public ImmutableSet<String> existingIndices() {
+        return indices;
+    }
+
+    public void register(String index) {
+        synchronized (lock) {
+            registeredDuringReconcile.add(index);
+            if (!indices.contains(index)) {
+                indices = ImmutableSet.<String>builder().addAll(indices).add(index).build();
+            }
+        }
+    }
+
+    public void deregister(String index) {
+        synchronized (lock) {
+            registeredDuringReconcile.remove(index);
+            if (indices.contains(index)) {
+                indices = ImmutableSet.copyOf(Sets.difference(indices, ImmutableSet.of(index)));
+            }
+        }
+    }
+
+    /* Indices registered while the cluster metadata is being fetched may not
+     * be in it so are kept.
+     */
+    public void reconcile() {
+        synchronized (lock) {
+            registeredDuringReconcile = Sets.newHashSet();
+        }
+        ImmutableSet<String> existing = scheduleNames.existingIndexNames();
+        synchronized (lock) {
+            indices = ImmutableSet.<String>builder()
+                .addAll(existing)
+                .addAll(registeredDuringReconcile)
+                .build();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.atlasapi.media.content.schedule;
+
+/**
+ * How broadcasts are stored in schedule indices.
+ */
+public enum EsScheduleLayout {
+
+    /**
+     * One document per item per index, with the item's broadcasts nested.
+     */
+    NESTED,
+    /**
+     * One document per broadcast per index, with the channel, publisher and
+     * times as top-level fields, so schedules are resolved with plain range
+     * filters. Documents are routed by channel so resolving a channel's
+     * schedule searches a single shard of each index.
+     */
+    FLAT;
+
+}
@@ -0,0 +1,223 @@
+package org.atlasapi.media.content.schedule;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.atlasapi.media.util.EsPersistenceException;
+import org.joda.time.DateTimeConstants;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.time.Clock;
+
+/**
+ * Caches the schedule of a channel for a publisher one UTC day at a time.
+ * Each day holds every broadcast on the channel overlapping that day so any
+ * interval within cached days can be served by slicing them. Days are
+ * invalidated by the indexer when it writes broadcasts overlapping them.
+ * <p>
+ * Writes only become searchable at the next refresh of the index, so a day
+ * read between a write and that refresh may be loaded without it. Days
+ * loaded less than {@code refreshWindowMillis} after they were invalidated
+ * are loaded again once that window has passed.
+ */
+public class ScheduleDayCache {
+
+    private static final long DAY_MILLIS = DateTimeConstants.MILLIS_PER_DAY;
+    //twice the default index refresh interval.
+    private static final long DEFAULT_REFRESH_WINDOW_MILLIS = 2000;
+
+    private final Clock clock;
+    private final long refreshWindowMillis;
+    private final Cache<DayKey, Day> days;
+    private final Cache<DayKey, Long> lastInvalidated;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong totalHitAgeMillis = new AtomicLong();
+
+    public ScheduleDayCache(Clock clock, long maximumSize, long expireAfterWrite, TimeUnit unit) {
+        this(clock, maximumSize, expireAfterWrite, unit, DEFAULT_REFRESH_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param refreshWindowMillis
+     *            how long after a write it is searchable, at least the
+     *            refresh interval of the schedule indices.
+     */
+    public ScheduleDayCache(Clock clock, long maximumSize, long expireAfterWrite, TimeUnit unit, 
+            long refreshWindowMillis) {
+        this.clock = checkNotNull(clock);
+        this.refreshWindowMillis = refreshWindowMillis;
+        this.days = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite, checkNotNull(unit))
+            .recordStats()
+            .build();
+        this.lastInvalidated = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite, unit)
+            .build();
+    }
+
+    /**
+     * @return the start of the UTC day containing the instant.
+     */
+    public static long dayOf(long millis) {
+        return millis - (((millis % DAY_MILLIS) + DAY_MILLIS) % DAY_MILLIS);
+    }
+
+    /**
+     * Gets the entries of a day, loading them if they're not cached.
+     * Concurrent requests for the same missing day share a single load. A
+     * load which fails is not cached.
+     *
+     * @param day
+     *            the start of the UTC day.
+     */
+    public ListenableFuture<ImmutableList<EsScheduleEntry>> day(String publisher, String channel, long day,
+            final Callable<ListenableFuture<ImmutableList<EsScheduleEntry>>> loader) {
+        final DayKey key = new DayKey(publisher, channel, day);
+        long now = clock.now().getMillis();
+        Day stale = days.asMap().get(key);
+        if (stale != null && loadedBeforeRefresh(key, stale, now)) {
+            days.asMap().remove(key, stale);
+        }
+        final boolean[] loaded = new boolean[1];
+        try {
+            Day cached = days.get(key, new Callable<Day>() {
+                @Override
+                public Day call() throws Exception {
+                    loaded[0] = true;
+                    return loaded(key, loader.call());
+                }
+            });
+            if (!loaded[0]) {
+                hits.incrementAndGet();
+                totalHitAgeMillis.addAndGet(now - cached.loadedAt);
+            }
+            return cached.entries;
+        } catch (ExecutionException e) {
+            throw new EsPersistenceException("Failed to load schedule day " + key, e.getCause());
+        }
+    }
+
+    private Day loaded(final DayKey key, ListenableFuture<ImmutableList<EsScheduleEntry>> entries) {
+        final Day day = new Day(clock.now().getMillis(), entries);
+        Futures.addCallback(entries, new FutureCallback<ImmutableList<EsScheduleEntry>>() {
+            @Override
+            public void onSuccess(ImmutableList<EsScheduleEntry> result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                days.asMap().remove(key, day);
+            }
+        });
+        return day;
+    }
+
+    /* A day is reloaded once if it was loaded before the last write to it
+     * was searchable, but not until it certainly is.
+     */
+    private boolean loadedBeforeRefresh(DayKey key, Day day, long now) {
+        Long invalidated = lastInvalidated.getIfPresent(key);
+        if (invalidated == null) {
+            return false;
+        }
+        long refreshed = invalidated + refreshWindowMillis;
+        return day.loadedAt < refreshed && now >= refreshed;
+    }
+
+    /**
+     * Invalidates every day overlapped by a broadcast on the channel.
+     */
+    public void invalidate(String publisher, String channel, long start, long end) {
+        long now = clock.now().getMillis();
+        long lastDay = dayOf(Math.max(start, end - 1));
+        for (long day = dayOf(start); day <= lastDay; day += DAY_MILLIS) {
+            DayKey key = new DayKey(publisher, channel, day);
+            days.invalidate(key);
+            lastInvalidated.put(key, now);
+            invalidations.incrementAndGet();
+        }
+    }
+
+    public CacheStats stats() {
+        return days.stats();
+    }
+
+    public long invalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the mean time between a day being loaded and it being served
+     *         from the cache, over all hits.
+     */
+    public long meanHitAgeMillis() {
+        long hitCount = hits.get();
+        return hitCount == 0 ? 0 : totalHitAgeMillis.get() / hitCount;
+    }
+
+    private static final class Day {
+
+        private final long loadedAt;
+        private final ListenableFuture<ImmutableList<EsScheduleEntry>> entries;
+
+        public Day(long loadedAt, ListenableFuture<ImmutableList<EsScheduleEntry>> entries) {
+            this.loadedAt = loadedAt;
+            this.entries = entries;
+        }
+    }
+
+    private static final class DayKey {
+
+        private final String publisher;
+        private final String channel;
+        private final long day;
+
+        public DayKey(String publisher, String channel, long day) {
+            this.publisher = checkNotNull(publisher);
+            this.channel = checkNotNull(channel);
+            this.day = day;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (this == that) {
+                return true;
+            }
+            if (that instanceof DayKey) {
+                DayKey other = (DayKey) that;
+                return day == other.day
+                    && channel.equals(other.channel)
+                    && publisher.equals(other.publisher);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(publisher, channel, day);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                .add("publisher", publisher)
+                .add("channel", channel)
+                .add("day", day)
+                .toString();
+        }
+    }
+}
@@ -8,8 +8,6 @@ import org.atlasapi.media.util.EsObject;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 
-import com.google.common.collect.Iterables;
-
 public class EsTopic extends EsObject {
     
     public static final XContentBuilder getMapping() throws IOException {
@@ -72,7 +70,7 @@ public class EsTopic extends EsObject {
     }
     
     public EsTopic aliases(Iterable<EsAlias> aliases) {
-        properties.put(ALIASES, Iterables.transform(aliases, TO_MAP));
+        properties.put(ALIASES, aliases);
         return this;
     }
     
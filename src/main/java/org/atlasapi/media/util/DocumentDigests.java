@@ -0,0 +1,92 @@
+package org.atlasapi.media.util;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Remembers digests of recently written documents, keyed by index, type and
+ * id, so writes of documents identical to the last written version can be
+ * skipped. A digest is only recorded once its write has succeeded, so a
+ * concurrent write of the same document isn't skipped on the strength of a
+ * write that may yet fail.
+ */
+public class DocumentDigests {
+
+    private static final HashFunction DIGEST = Hashing.md5();
+
+    private final Cache<String, HashCode> digests;
+    private final ConcurrentMap<IndexRequest, HashCode> pending = Maps.newConcurrentMap();
+    private final AtomicLong skippedWrites = new AtomicLong();
+
+    public DocumentDigests(long maximumSize) {
+        this.digests = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .build();
+    }
+
+    /**
+     * Checks the digest of an encoded document against the last one recorded
+     * as written. If it differs the new digest is held against the request:
+     * callers must report the outcome of its write with
+     * {@link #written(IndexRequest)} or {@link #invalidate(IndexRequest)}.
+     *
+     * @return true if the document is identical to the last one written.
+     */
+    public boolean unchanged(IndexRequest request, BytesReference source) {
+        HashCode digest = digest(source);
+        if (digest.equals(digests.getIfPresent(keyFor(request)))) {
+            skippedWrites.incrementAndGet();
+            return true;
+        }
+        pending.put(request, digest);
+        return false;
+    }
+
+    /**
+     * Records the digest held against a request whose write succeeded.
+     */
+    public void written(IndexRequest request) {
+        HashCode digest = pending.remove(request);
+        if (digest != null) {
+            digests.put(keyFor(request), digest);
+        }
+    }
+
+    public void invalidate(IndexRequest request) {
+        pending.remove(request);
+        digests.invalidate(keyFor(request));
+    }
+
+    public void invalidate(String index, String type, String id) {
+        digests.invalidate(keyFor(index, type, id));
+    }
+
+    public long skippedWrites() {
+        return skippedWrites.get();
+    }
+
+    private String keyFor(IndexRequest request) {
+        return keyFor(request.index(), request.type(), request.id());
+    }
+
+    private String keyFor(String index, String type, String id) {
+        return index + "/" + type + "/" + id;
+    }
+
+    private HashCode digest(BytesReference source) {
+        if (source.hasArray()) {
+            return DIGEST.hashBytes(source.array(), source.arrayOffset(), source.length());
+        }
+        return DIGEST.hashBytes(source.toBytes());
+    }
+}
@@ -0,0 +1,238 @@
+package org.atlasapi.media.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.node.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Accumulates index and delete requests from many callers into shared bulk requests.
+ * A bulk is sent when it reaches {@code maxActions} actions or
+ * {@code maxBytes} estimated bytes, or at the latest {@code maxLatency} after
+ * the previous flush. Each call to {@link #add(Collection)} gets a future
+ * which completes when the bulk containing its requests has been executed.
+ * At most {@code maxConcurrentBulks} bulks are in flight: flushes beyond
+ * that wait, holding back callers whose requests fill a bulk. With a single
+ * bulk in flight, the default, requests are executed in the order added.
+ */
+public class EsBulkAccumulator extends AbstractIdleService {
+
+    private final Logger log = LoggerFactory.getLogger(EsBulkAccumulator.class);
+
+    private final Node esClient;
+    private final int maxActions;
+    private final long maxBytes;
+    private final long maxLatency;
+    private final TimeUnit latencyUnit;
+    private final int maxConcurrentBulks;
+    private final Semaphore inFlight;
+
+    private final Object lock = new Object();
+    private BulkRequest pending = Requests.bulkRequest();
+    private List<PendingEntry> pendingEntries = Lists.newArrayList();
+    private boolean closed = false;
+
+    private ScheduledExecutorService flusher;
+
+    public EsBulkAccumulator(Node esClient, int maxActions, long maxBytes, long maxLatency, TimeUnit latencyUnit) {
+        this(esClient, maxActions, maxBytes, maxLatency, latencyUnit, 1);
+    }
+
+    public EsBulkAccumulator(Node esClient, int maxActions, long maxBytes, long maxLatency, TimeUnit latencyUnit, 
+            int maxConcurrentBulks) {
+        checkArgument(maxActions > 0, "maxActions must be positive");
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        checkArgument(maxLatency > 0, "maxLatency must be positive");
+        checkArgument(maxConcurrentBulks > 0, "maxConcurrentBulks must be positive");
+        this.esClient = checkNotNull(esClient);
+        this.maxActions = maxActions;
+        this.maxBytes = maxBytes;
+        this.maxLatency = maxLatency;
+        this.latencyUnit = checkNotNull(latencyUnit);
+        this.maxConcurrentBulks = maxConcurrentBulks;
+        this.inFlight = new Semaphore(maxConcurrentBulks);
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("es-bulk-flusher-%d")
+            .setDaemon(true)
+            .build());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    log.error("Failed to flush bulk requests", e);
+                }
+            }
+        }, maxLatency, maxLatency, latencyUnit);
+    }
+
+    /* Requests added once shut down are rejected, those already added are
+     * flushed and waited for.
+     */
+    @Override
+    protected void shutDown() throws Exception {
+        synchronized (lock) {
+            closed = true;
+        }
+        flusher.shutdown();
+        flush();
+        inFlight.acquireUninterruptibly(maxConcurrentBulks);
+        inFlight.release(maxConcurrentBulks);
+    }
+
+    public ListenableFuture<Void> add(Collection<IndexRequest> requests) {
+        return add(ImmutableList.<DeleteRequest>of(), requests);
+    }
+
+    /**
+     * Adds deletes and index requests to the same bulk, deletes first. The
+     * returned future fails if any of them fails.
+     */
+    public ListenableFuture<Void> add(Collection<DeleteRequest> deletes, Collection<IndexRequest> requests) {
+        if (deletes.isEmpty() && requests.isEmpty()) {
+            return Futures.immediateFuture(null);
+        }
+        SettableFuture<Void> result = SettableFuture.create();
+        boolean full;
+        synchronized (lock) {
+            if (closed) {
+                return Futures.immediateFailedFuture(
+                    new IllegalStateException("Bulk accumulator is shut down"));
+            }
+            for (DeleteRequest delete : deletes) {
+                pending.add(delete);
+            }
+            for (IndexRequest request : requests) {
+                pending.add(request);
+            }
+            pendingEntries.add(new PendingEntry(result, deletes.size() + requests.size()));
+            full = pending.numberOfActions() >= maxActions
+                || pending.estimatedSizeInBytes() >= maxBytes;
+        }
+        if (full) {
+            flush();
+        }
+        return result;
+    }
+
+    /* A permit is taken before the pending requests so bulks are sent in the
+     * order they were accumulated. It's released when the bulk completes.
+     */
+    public void flush() {
+        inFlight.acquireUninterruptibly();
+        BulkRequest request;
+        List<PendingEntry> entries;
+        synchronized (lock) {
+            if (pending.numberOfActions() == 0) {
+                inFlight.release();
+                return;
+            }
+            request = pending;
+            entries = pendingEntries;
+            pending = Requests.bulkRequest();
+            pendingEntries = Lists.newArrayList();
+        }
+        CompletingListener listener = new CompletingListener(entries, inFlight);
+        try {
+            esClient.client().bulk(request, listener);
+        } catch (RuntimeException e) {
+            log.error("Failed to send bulk of " + request.numberOfActions() + " requests", e);
+            listener.onFailure(e);
+        }
+    }
+
+    /**
+     * Flushes pending requests and waits for every bulk in flight, including
+     * the one flushed, to complete.
+     *
+     * @return false if they didn't complete within the timeout.
+     */
+    public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        flush();
+        if (!inFlight.tryAcquire(maxConcurrentBulks, timeout, unit)) {
+            return false;
+        }
+        inFlight.release(maxConcurrentBulks);
+        return true;
+    }
+
+    private static final class PendingEntry {
+
+        private final SettableFuture<Void> result;
+        private final int actions;
+
+        public PendingEntry(SettableFuture<Void> result, int actions) {
+            this.result = result;
+            this.actions = actions;
+        }
+    }
+
+    private static final class CompletingListener implements ActionListener<BulkResponse> {
+
+        private final List<PendingEntry> entries;
+        private final Semaphore inFlight;
+
+        public CompletingListener(List<PendingEntry> entries, Semaphore inFlight) {
+            this.entries = entries;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public void onResponse(BulkResponse response) {
+            inFlight.release();
+            BulkItemResponse[] items = response.getItems();
+            int offset = 0;
+            for (PendingEntry entry : entries) {
+                String failure = null;
+                for (int i = offset; i < offset + entry.actions; i++) {
+                    if (items[i].isFailed()) {
+                        failure = items[i].getFailureMessage();
+                    }
+                }
+                offset += entry.actions;
+                if (failure == null) {
+                    entry.result.set(null);
+                } else {
+                    entry.result.setException(new EsPersistenceException(failure));
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+            inFlight.release();
+            for (PendingEntry entry : entries) {
+                entry.result.setException(e);
+            }
+        }
+    }
+}
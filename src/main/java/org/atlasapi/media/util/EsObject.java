@@ -1,15 +1,39 @@
 package org.atlasapi.media.util;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
-public class EsObject {
+public class EsObject implements ToXContent {
 
     public final static FromEsObjectToMap TO_MAP = new FromEsObjectToMap();
 
-    protected Map<String, Object> properties = new HashMap<String,Object>() {
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<BytesStreamOutput> BUFFERS = new ThreadLocal<BytesStreamOutput>() {
+        @Override
+        protected BytesStreamOutput initialValue() {
+            return new BytesStreamOutput(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+    /* Insertion ordered so an object is always encoded the same way.
+     */
+    protected Map<String, Object> properties = new LinkedHashMap<String,Object>() {
         @Override
         public Object put(String k, Object v) {
             if (k != null && v != null) {
@@ -20,8 +44,82 @@ public class EsObject {
         }
     };
 
+    /**
+     * Converts this object to a map, converting nested {@link EsObject}s to
+     * maps too. Prefer {@link #toSource()} when writing documents.
+     */
     public Map<String, Object> toMap() {
-        return properties;
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        for (Entry<String, Object> property : properties.entrySet()) {
+            map.put(property.getKey(), toMapValue(property.getValue()));
+        }
+        return map;
+    }
+
+    private static Object toMapValue(Object value) {
+        if (value instanceof EsObject) {
+            return ((EsObject) value).toMap();
+        }
+        if (value instanceof Iterable) {
+            List<Object> values = Lists.newArrayList();
+            for (Object element : (Iterable<?>) value) {
+                values.add(toMapValue(element));
+            }
+            return values;
+        }
+        return value;
+    }
+
+    /**
+     * Encodes this object as a JSON document, ready to be used as the source
+     * of an index request.
+     */
+    public XContentBuilder toSource() throws IOException {
+        return toXContent(XContentFactory.jsonBuilder(), EMPTY_PARAMS);
+    }
+
+    /**
+     * Encodes this object as a JSON document, using a buffer reused by the
+     * calling thread across calls so only the returned array is allocated
+     * per document.
+     */
+    public byte[] toSourceBytes() throws IOException {
+        BytesStreamOutput buffer = BUFFERS.get();
+        buffer.reset();
+        XContentBuilder builder = XContentFactory.jsonBuilder(buffer);
+        toXContent(builder, EMPTY_PARAMS);
+        builder.close();
+        BytesReference bytes = buffer.bytes();
+        byte[] source = Arrays.copyOfRange(bytes.array(), 
+            bytes.arrayOffset(), bytes.arrayOffset() + bytes.length());
+        if (source.length > MAX_RETAINED_BUFFER_SIZE) {
+            BUFFERS.remove();
+        }
+        return source;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        for (Entry<String, Object> property : properties.entrySet()) {
+            builder.field(property.getKey());
+            writeValue(builder, property.getValue(), params);
+        }
+        return builder.endObject();
+    }
+
+    private static void writeValue(XContentBuilder builder, Object value, Params params) throws IOException {
+        if (value instanceof EsObject) {
+            ((EsObject) value).toXContent(builder, params);
+        } else if (value instanceof Iterable) {
+            builder.startArray();
+            for (Object element : (Iterable<?>) value) {
+                writeValue(builder, element, params);
+            }
+            builder.endArray();
+        } else {
+            builder.value(value);
+        }
     }
 
     private static class FromEsObjectToMap implements Function<EsObject, Map<String, Object>> {
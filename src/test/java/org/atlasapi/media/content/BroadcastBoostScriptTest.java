@@ -0,0 +1,41 @@
+package org.atlasapi.media.content;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BroadcastBoostScriptTest {
+
+    private static final long ONE_WEEK = TimeUnit.DAYS.toMillis(7);
+
+    @Test
+    public void testDoublesScoreOfBroadcastNow() {
+        assertThat((double) BroadcastBoostScript.boost(2f, 0, 1f, 1f, ONE_WEEK), is(closeTo(4, 0.0001)));
+    }
+
+    @Test
+    public void testDecaysSlowerWithinAWeek() {
+        float withinWeek = BroadcastBoostScript.boost(1f, 100, 1f, 1f, ONE_WEEK);
+        assertThat((double) withinWeek, is(closeTo(1 + 1 / 3.0, 0.0001)));
+        assertThat(withinWeek, is(greaterThan(BroadcastBoostScript.boost(1f, 100, 1f, 1f, 50))));
+    }
+
+    @Test
+    public void testAppliesFirstBroadcastBoost() {
+        assertThat((double) BroadcastBoostScript.boost(1f, 0, 3f, 1f, ONE_WEEK), is(closeTo(4, 0.0001)));
+    }
+
+    @Test
+    public void testFindsNearestOfSortedTimes() {
+        long[] times = { 10, 20, 40 };
+        assertThat(BroadcastBoostScript.nearest(times, 20), is(0L));
+        assertThat(BroadcastBoostScript.nearest(times, 0), is(10L));
+        assertThat(BroadcastBoostScript.nearest(times, 33), is(7L));
+        assertThat(BroadcastBoostScript.nearest(times, 100), is(60L));
+    }
+}
@@ -0,0 +1,155 @@
+package org.atlasapi.media.content;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.media.EsSchema;
+import org.atlasapi.media.common.Id;
+import org.atlasapi.media.entity.Broadcast;
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.media.entity.Version;
+import org.atlasapi.media.util.EsBulkAccumulator;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.joda.time.DateTime;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.time.DateTimeZones;
+
+/**
+ * Compares the latency of searches scored by {@link BroadcastQueryBuilder}'s
+ * native script against the original MVEL script, which read every
+ * candidate's broadcasts from its source, on a local node loaded with
+ * synthetic items. Run with main(): it prints the latencies of each and the
+ * MVEL to native ratio of their medians. Latencies depend on the machine
+ * and cluster, and none are recorded with the change.
+ */
+public class BroadcastScoringBenchmark {
+
+    private static final int ITEMS = 20000;
+    private static final int BROADCASTS_PER_ITEM = 5;
+    private static final int WARMUP_QUERIES = 200;
+    private static final int MEASURED_QUERIES = 1000;
+
+    private static final String[] TERMS = { "news", "film", "show", "match", "quiz" };
+
+    public static void main(String[] args) throws Exception {
+        Node node = NodeBuilder.nodeBuilder()
+            .local(true).clusterName(UUID.randomUUID().toString())
+            .build().start();
+        try {
+            load(node);
+            for (int run = 0; run < 3; run++) {
+                long[] mvel = time(node, true);
+                long[] nativeScript = time(node, false);
+                report("mvel", mvel);
+                report("native", nativeScript);
+                System.out.println(String.format("p50 ratio %6.2fx", median(mvel) / (double) median(nativeScript)));
+            }
+        } finally {
+            node.close();
+        }
+    }
+
+    private static void load(Node node) throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(node, 1000, 5 * 1024 * 1024, 1, TimeUnit.SECONDS);
+        EsContentIndexer indexer = EsContentIndexer.builder(node)
+            .withBulkAccumulator(accumulator)
+            .build();
+        indexer.startAndWait();
+        Random random = new Random(42);
+        DateTime now = new DateTime(DateTimeZones.UTC);
+        List<ListenableFuture<Void>> writes = Lists.newArrayList();
+        for (int id = 1; id <= ITEMS; id++) {
+            Version version = new Version();
+            for (int b = 0; b < BROADCASTS_PER_ITEM; b++) {
+                DateTime start = now.plusMinutes(random.nextInt(60 * 24 * 60) - 60 * 24 * 30);
+                Broadcast broadcast = new Broadcast("http://example.com/channels/" + random.nextInt(20), start, start.plusMinutes(30));
+                broadcast.setRepeat(random.nextBoolean());
+                version.addBroadcast(broadcast);
+            }
+            Item item = new Item("item" + id, "item" + id, Publisher.METABROADCAST);
+            item.setTitle(TERMS[id % TERMS.length] + " " + id);
+            item.setId(Id.valueOf(id));
+            item.addVersion(version);
+            writes.add(indexer.indexAsync(item));
+        }
+        Futures.allAsList(writes).get(10, TimeUnit.MINUTES);
+        indexer.stopAndWait();
+        node.client().admin().indices().refresh(Requests.refreshRequest()).actionGet();
+        System.out.println(String.format("Loaded %d items", writes.size()));
+    }
+
+    private static long[] time(Node node, boolean legacy) {
+        Random random = new Random(7);
+        for (int i = 0; i < WARMUP_QUERIES; i++) {
+            search(node, legacy, random);
+        }
+        long[] latencies = new long[MEASURED_QUERIES];
+        for (int i = 0; i < MEASURED_QUERIES; i++) {
+            latencies[i] = search(node, legacy, random);
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static long search(Node node, boolean legacy, Random random) {
+        QueryBuilder title = TitleQueryBuilder.build(TERMS[random.nextInt(TERMS.length)], 1f);
+        QueryBuilder query = legacy 
+                           ? legacyBuild(title, 1f, 1f) 
+                           : BroadcastQueryBuilder.build(title, 1f, 1f);
+        long begin = System.nanoTime();
+        node.client().prepareSearch(EsSchema.INDEX_NAME)
+            .setQuery(query)
+            .addField(EsContent.ID)
+            .setSize(10)
+            .execute().actionGet();
+        return System.nanoTime() - begin;
+    }
+
+    private static long median(long[] sortedNanos) {
+        return sortedNanos[sortedNanos.length / 2];
+    }
+
+    private static void report(String name, long[] sortedNanos) {
+        long total = 0;
+        for (long nanos : sortedNanos) {
+            total += nanos;
+        }
+        System.out.println(String.format("%-8s mean %6.2fms p50 %6.2fms p99 %6.2fms", name,
+            total / (double) sortedNanos.length / 1000000,
+            median(sortedNanos) / 1000000.0,
+            sortedNanos[(int) (sortedNanos.length * 0.99)] / 1000000.0));
+    }
+
+    private static QueryBuilder legacyBuild(QueryBuilder childQuery, float timeBoost, float firstBroadcastBoost) {
+        return QueryBuilders.customScoreQuery(QueryBuilders.filteredQuery(childQuery,
+                FilterBuilders.nestedFilter(EsContent.BROADCASTS,
+                FilterBuilders.rangeFilter(EsBroadcast.TRANSMISSION_TIME).from(new DateTime().minusDays(30)).to(new DateTime().plusDays(30))))).
+                param("firstBroadcastBoost", firstBroadcastBoost).
+                param("timeBoost", timeBoost).
+                param("oneWeek", TimeUnit.MILLISECONDS.convert(7, TimeUnit.DAYS)).
+                script(""
+                + "if (_source.broadcasts != null) {"
+                + "  now = time();"
+                + "  t = Long.MAX_VALUE;"
+                + "  f = 1;"
+                + "  foreach (b : _source.broadcasts) {"
+                + "    candidate = abs(now - b.transmissionTimeInMillis);"
+                + "    if (candidate < t) t = candidate;"
+                + "    if (b.repeat = false) f = firstBroadcastBoost;"
+                + "  }"
+                + "  _score + (_score * f * timeBoost * (1 / (1 + (t / (t < oneWeek ? 50 : 1)))));"
+                + "} else _score;");
+    }
+}
@@ -0,0 +1,41 @@
+package org.atlasapi.media.content;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.media.content.ContainerTitleCache.ContainerTitle;
+import org.junit.Test;
+
+public class ContainerTitleCacheTest {
+
+    private final ContainerTitleCache cache = new ContainerTitleCache(2, 1, TimeUnit.MINUTES);
+
+    @Test
+    public void testRecordsHitsAndMisses() {
+        assertThat(cache.get("1"), is(nullValue()));
+        cache.put("1", new ContainerTitle("The Title", "title"));
+        assertThat(cache.get("1").getTitle(), is("The Title"));
+
+        assertThat(cache.stats().hitCount(), is(1L));
+        assertThat(cache.stats().missCount(), is(1L));
+    }
+
+    @Test
+    public void testPutReplacesCachedTitle() {
+        cache.put("1", new ContainerTitle("Title", "title"));
+        cache.put("1", new ContainerTitle("New Title", "newtitle"));
+        assertThat(cache.get("1").getFlattenedTitle(), is("newtitle"));
+    }
+
+    @Test
+    public void testEvictsBeyondMaximumSize() {
+        cache.put("1", new ContainerTitle("one", "one"));
+        cache.put("2", new ContainerTitle("two", "two"));
+        cache.put("3", new ContainerTitle("three", "three"));
+
+        assertThat(cache.stats().evictionCount(), is(1L));
+    }
+}
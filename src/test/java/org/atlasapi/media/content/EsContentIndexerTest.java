@@ -1,9 +1,18 @@
 package org.atlasapi.media.content;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
 
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -13,14 +22,28 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 import org.atlasapi.media.EsSchema;
 import org.atlasapi.media.common.Id;
+import org.atlasapi.media.content.schedule.EsScheduleLayout;
+import org.atlasapi.media.content.schedule.ScheduleDayCache;
+import org.atlasapi.media.entity.Brand;
 import org.atlasapi.media.entity.Broadcast;
+import org.atlasapi.media.entity.ChildRef;
 import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.ParentRef;
 import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.media.entity.TopicRef;
 import org.atlasapi.media.entity.TopicRef.Relationship;
 import org.atlasapi.media.entity.Version;
+import org.atlasapi.media.util.EsBulkAccumulator;
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.AdminClient;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.IndicesAdminClient;
 import org.elasticsearch.client.Requests;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.node.Node;
@@ -36,7 +59,10 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.metabroadcast.common.time.DateTimeZones;
+import com.metabroadcast.common.time.SystemClock;
 
 public final class EsContentIndexerTest {
     
@@ -111,6 +137,195 @@ public final class EsContentIndexerTest {
         assertEquals(0, hits3.totalHits());
     }
     
+    @Test
+    public void testWritesItemOnRetryAfterScheduleIndexCreationFails() throws Exception {
+        Client client = spy(esClient.client());
+        AdminClient admin = spy(client.admin());
+        IndicesAdminClient indices = spy(admin.indices());
+        doReturn(admin).when(client).admin();
+        doReturn(indices).when(admin).indices();
+        Node node = mock(Node.class);
+        when(node.client()).thenReturn(client);
+        EsContentIndexer indexer = new EsContentIndexer(node);
+        indexer.startAndWait();
+        
+        DateTime broadcastStart = new DateTime(1980, 10, 10, 10, 10, 10, 10, DateTimeZones.UTC);
+        Version version = new Version();
+        version.addBroadcast(new Broadcast("MB", broadcastStart, broadcastStart.plusHours(1)));
+        Item item = new Item("uri", "curie", Publisher.METABROADCAST);
+        item.setId(Id.valueOf(1));
+        item.addVersion(version);
+        
+        doThrow(new ElasticSearchException("Failed")).doCallRealMethod()
+            .when(indices).create(any(CreateIndexRequest.class));
+        try {
+            indexer.index(item);
+            fail("Expected schedule index creation to fail");
+        } catch (IndexException e) {
+        }
+        
+        indexer.index(item);
+        
+        assertTrue(esClient.client()
+            .prepareGet(EsSchema.INDEX_NAME, EsContent.TOP_LEVEL_TYPE, "1")
+            .execute().actionGet(60, TimeUnit.SECONDS).isExists());
+        assertTrue(esClient.client()
+            .prepareGet("schedule-1980", EsContent.TOP_LEVEL_TYPE, "1")
+            .execute().actionGet(60, TimeUnit.SECONDS).isExists());
+        assertEquals(0, indexer.skippedWrites());
+    }
+
+    @Test
+    public void testRoutesFlatBroadcastsByChannelKeyedOnChannel() throws Exception {
+        EsContentIndexer flatIndexer = flatIndexer().build();
+        flatIndexer.startAndWait();
+        DateTime broadcastStart = new DateTime(1980, 10, 10, 10, 10, 10, 10, DateTimeZones.UTC);
+        
+        flatIndexer.index(itemWithBroadcast(new Broadcast("MB1", broadcastStart, broadcastStart.plusHours(1)).withId("b1")));
+        flatIndexer.index(itemWithBroadcast(new Broadcast("MB2", broadcastStart, broadcastStart.plusHours(1)).withId("b1")));
+        
+        Map<String, Object> moved = flatSource("b1:MB2", "MB2");
+        assertEquals("MB2", moved.get(EsScheduleBroadcast.CHANNEL));
+        assertEquals("b1", moved.get(EsScheduleBroadcast.BROADCAST_ID));
+        assertFalse(flatDocument("b1:MB1", "MB1").isExists());
+    }
+    
+    @Test
+    public void testSkipsScheduleOfBroadcastsWithoutChannel() throws Exception {
+        EsContentIndexer flatIndexer = flatIndexer()
+            .withScheduleCache(new ScheduleDayCache(new SystemClock(), 100, 5, TimeUnit.MINUTES))
+            .build();
+        flatIndexer.startAndWait();
+        DateTime broadcastStart = new DateTime(1980, 10, 10, 10, 10, 10, 10, DateTimeZones.UTC);
+        Item item = itemWithBroadcast(new Broadcast("MB", broadcastStart, broadcastStart.plusHours(1)));
+        item.getVersions().iterator().next()
+            .addBroadcast(new Broadcast(null, broadcastStart, broadcastStart.plusHours(1)).withId("b2"));
+        
+        flatIndexer.index(item);
+        
+        assertEquals("MB", flatSource("1:MB:" + broadcastStart.getMillis(), "MB").get(EsScheduleBroadcast.CHANNEL));
+        esClient.client().admin().indices().prepareRefresh("schedule-1980").execute().actionGet();
+        assertEquals(1, esClient.client().prepareSearch("schedule-1980")
+            .setTypes(EsScheduleBroadcast.TYPE)
+            .setQuery(QueryBuilders.matchAllQuery())
+            .execute().actionGet(60, TimeUnit.SECONDS).getHits().totalHits());
+    }
+
+    @Test
+    public void testIndexesDerivedBroadcastTimes() throws Exception {
+        DateTime past = new DateTime(1980, 10, 10, 10, 10, 10, 10, DateTimeZones.UTC);
+        DateTime future = new DateTime(DateTimeZones.UTC).plusDays(1);
+        Broadcast repeat = new Broadcast("MB", future.plusDays(1), future.plusDays(1).plusHours(1));
+        repeat.setRepeat(true);
+        Version version = new Version();
+        version.addBroadcast(repeat);
+        version.addBroadcast(new Broadcast("MB", future, future.plusHours(1)));
+        version.addBroadcast(new Broadcast("MB", past, past.plusHours(1)));
+        Item item = new Item("uri", "curie", Publisher.METABROADCAST);
+        item.setId(Id.valueOf(1));
+        item.addVersion(version);
+        
+        contentIndexer.index(item);
+        
+        Map<String, Object> source = esClient.client()
+            .prepareGet(EsSchema.INDEX_NAME, EsContent.TOP_LEVEL_TYPE, "1")
+            .execute().actionGet(60, TimeUnit.SECONDS).getSourceAsMap();
+        assertEquals(ImmutableList.of(past.getMillis(), future.getMillis(), future.plusDays(1).getMillis()), 
+            toLongs((List<?>) source.get(EsContent.TRANSMISSION_TIMES)));
+        assertEquals(past.getMillis(), ((Number) source.get(EsContent.EARLIEST_FIRST_RUN_TIME)).longValue());
+        assertEquals(future.getMillis(), ((Number) source.get(EsContent.LATEST_FIRST_RUN_TIME)).longValue());
+    }
+
+    @Test
+    public void testRewritesParentTitleOfChildrenInEveryChunk() throws Exception {
+        Brand brand = new Brand("brand", "brand", Publisher.METABROADCAST);
+        brand.setId(Id.valueOf(100000));
+        brand.setTitle("Old Title");
+        int childCount = EsContentIndexer.CHILD_FETCH_CHUNK_SIZE * EsContentIndexer.CHILD_FETCH_PARALLELISM + 1;
+        List<Item> children = children(brand, childCount);
+        
+        contentIndexer.index(brand);
+        for (Item child : children) {
+            contentIndexer.index(child);
+        }
+        brand.setTitle("New Title");
+        contentIndexer.index(brand);
+        
+        for (Item child : children) {
+            assertEquals("New Title", childSource(brand, child).get(EsContent.PARENT_TITLE));
+        }
+    }
+
+    @Test
+    public void testRewritesChildrenOnRetryAfterFailedRetitle() throws Exception {
+        Client client = spy(esClient.client());
+        Node node = mock(Node.class);
+        when(node.client()).thenReturn(client);
+        EsContentIndexer indexer = new EsContentIndexer(node);
+        indexer.startAndWait();
+        
+        Brand brand = new Brand("brand", "brand", Publisher.METABROADCAST);
+        brand.setId(Id.valueOf(100000));
+        brand.setTitle("Old Title");
+        Item child = children(brand, 1).get(0);
+        indexer.index(brand);
+        indexer.index(child);
+        
+        brand.setTitle("New Title");
+        doThrow(new ElasticSearchException("Failed")).doCallRealMethod()
+            .when(client).bulk(any(BulkRequest.class));
+        try {
+            indexer.index(brand);
+            fail("Expected children write to fail");
+        } catch (ElasticSearchException e) {
+        }
+        assertEquals("Old Title", childSource(brand, child).get(EsContent.PARENT_TITLE));
+        
+        indexer.index(brand);
+        assertEquals("New Title", childSource(brand, child).get(EsContent.PARENT_TITLE));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testThrowsWhenWriteThroughAccumulatorFails() throws Exception {
+        Client client = spy(esClient.client());
+        Node node = mock(Node.class);
+        when(node.client()).thenReturn(client);
+        doThrow(new ElasticSearchException("Failed"))
+            .when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+        EsContentIndexer indexer = EsContentIndexer.builder(node)
+            .withBulkAccumulator(new EsBulkAccumulator(node, 1000, 1024 * 1024, 10, TimeUnit.MILLISECONDS))
+            .build();
+        indexer.startAndWait();
+        
+        DateTime broadcastStart = new DateTime(1980, 10, 10, 10, 10, 10, 10, DateTimeZones.UTC);
+        try {
+            indexer.index(itemWithBroadcast(new Broadcast("MB", broadcastStart, broadcastStart.plusHours(1))));
+            fail("Expected write to fail");
+        } catch (IndexException e) {
+        }
+    }
+
+    @Test
+    public void testRewritesParentTitleOfChildrenPendingInAccumulator() throws Exception {
+        EsContentIndexer indexer = EsContentIndexer.builder(esClient)
+            .withBulkAccumulator(new EsBulkAccumulator(esClient, 1000, 1024 * 1024, 1, TimeUnit.SECONDS))
+            .build();
+        indexer.startAndWait();
+        
+        Brand brand = new Brand("brand", "brand", Publisher.METABROADCAST);
+        brand.setId(Id.valueOf(100000));
+        brand.setTitle("Old Title");
+        Item child = children(brand, 1).get(0);
+        indexer.index(brand);
+        indexer.indexAsync(child);
+        
+        brand.setTitle("New Title");
+        indexer.index(brand);
+        
+        assertEquals("New Title", childSource(brand, child).get(EsContent.PARENT_TITLE));
+    }
+
     @Test
     public void testTopicFacets() throws Exception {
         DateTime now = new DateTime(DateTimeZones.UTC);
@@ -163,4 +378,59 @@ public final class EsContentIndexerTest {
         assertEquals("2", terms.get(1).getTerm());
         assertEquals(1, terms.get(1).getCount());
     }
+
+    private EsContentIndexer.Builder flatIndexer() {
+        return EsContentIndexer.builder(esClient).withScheduleLayout(EsScheduleLayout.FLAT);
+    }
+
+    private Item itemWithBroadcast(Broadcast broadcast) {
+        Version version = new Version();
+        version.addBroadcast(broadcast);
+        Item item = new Item("uri", "curie", Publisher.METABROADCAST);
+        item.setId(Id.valueOf(1));
+        item.addVersion(version);
+        return item;
+    }
+
+    private Map<String, Object> flatSource(String id, String channel) {
+        return flatDocument(id, channel).getSourceAsMap();
+    }
+
+    private GetResponse flatDocument(String id, String channel) {
+        return esClient.client()
+            .prepareGet("schedule-1980", EsScheduleBroadcast.TYPE, id)
+            .setRouting(channel)
+            .execute().actionGet(60, TimeUnit.SECONDS);
+    }
+
+    private List<Long> toLongs(List<?> numbers) {
+        List<Long> longs = Lists.newArrayList();
+        for (Object number : numbers) {
+            longs.add(((Number) number).longValue());
+        }
+        return longs;
+    }
+
+    private List<Item> children(Brand brand, int count) {
+        List<Item> children = Lists.newArrayList();
+        List<ChildRef> childRefs = Lists.newArrayList();
+        for (int i = 1; i <= count; i++) {
+            Item child = new Item("child" + i, "child" + i, Publisher.METABROADCAST);
+            child.setId(Id.valueOf(i));
+            child.setTitle("child" + i);
+            child.setThisOrChildLastUpdated(new DateTime(DateTimeZones.UTC));
+            child.setParentRef(ParentRef.parentRefFrom(brand));
+            children.add(child);
+            childRefs.add(child.childRef());
+        }
+        brand.setChildRefs(childRefs);
+        return children;
+    }
+
+    private Map<String, Object> childSource(Brand brand, Item child) {
+        return esClient.client()
+            .prepareGet(EsSchema.INDEX_NAME, EsContent.CHILD_TYPE, String.valueOf(child.getId()))
+            .setRouting(String.valueOf(brand.getId()))
+            .execute().actionGet(60, TimeUnit.SECONDS).getSourceAsMap();
+    }
 }
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Level;
@@ -13,14 +14,18 @@ import org.atlasapi.media.EsSchema;
 import org.atlasapi.media.common.Id;
 import org.atlasapi.media.entity.Brand;
 import org.atlasapi.media.entity.Broadcast;
+import org.atlasapi.media.entity.Encoding;
 import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.Location;
 import org.atlasapi.media.entity.ParentRef;
+import org.atlasapi.media.entity.Policy;
 import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.media.entity.Specialization;
 import org.atlasapi.media.entity.Version;
 import org.atlasapi.search.model.SearchQuery;
 import org.atlasapi.search.model.SearchResults;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
 import org.joda.time.DateTime;
@@ -28,6 +33,7 @@ import org.junit.After;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.query.Selection;
@@ -121,4 +127,155 @@ public class EsContentSearcherTest {
         assertEquals(brand1.getId(), results.getIds().get(0));
         assertEquals(item4.getId(), results.getIds().get(1));
     }
+
+    @Test
+    public void testCachesResultsOfSearchesWithSameNormalisedTerm() throws Exception {
+        Item item = new Item("uri1", "curie1", Publisher.METABROADCAST);
+        item.setTitle("title1");
+        item.setId(Id.valueOf(1));
+        item.setThisOrChildLastUpdated(new DateTime(DateTimeZones.UTC));
+
+        EsContentIndexer contentIndexer = new EsContentIndexer(esClient);
+        contentIndexer.startAndWait();
+        contentIndexer.index(item);
+        Thread.sleep(1000);
+
+        EsContentSearcher contentSearcher = new EsContentSearcher(esClient, 1, TimeUnit.MINUTES, 100);
+        SearchResults first = contentSearcher.search(query("Title1")).get();
+        SearchResults second = contentSearcher.search(query("title1!")).get();
+        
+        assertEquals(ImmutableList.of(item.getId()), first.getIds());
+        assertEquals(first.getIds(), second.getIds());
+        assertEquals(1, contentSearcher.cacheStats().missCount());
+        assertEquals(1, contentSearcher.cacheStats().hitCount());
+    }
+
+    @Test
+    public void testFindsTitlesByShortPrefix() throws Exception {
+        Item title = new Item("uri1", "curie1", Publisher.METABROADCAST);
+        title.setTitle("Title");
+        title.setId(Id.valueOf(1));
+        title.setThisOrChildLastUpdated(new DateTime(DateTimeZones.UTC));
+        Item other = new Item("uri2", "curie2", Publisher.METABROADCAST);
+        other.setTitle("pippo");
+        other.setId(Id.valueOf(2));
+        other.setThisOrChildLastUpdated(new DateTime(DateTimeZones.UTC));
+
+        EsContentIndexer contentIndexer = new EsContentIndexer(esClient);
+        contentIndexer.startAndWait();
+        contentIndexer.index(title);
+        contentIndexer.index(other);
+        Thread.sleep(1000);
+
+        EsContentSearcher contentSearcher = new EsContentSearcher(esClient);
+        assertEquals(ImmutableList.of(title.getId()), contentSearcher.search(query("t")).get().getIds());
+        assertEquals(ImmutableList.of(title.getId()), contentSearcher.search(query("TI")).get().getIds());
+        assertEquals(ImmutableList.of(other.getId()), contentSearcher.search(query("p")).get().getIds());
+    }
+
+    @Test
+    public void testFindsTitlesByShortPrefixWithoutPrefixField() throws Exception {
+        createIndexWithoutPrefixField();
+        Item title = new Item("uri1", "curie1", Publisher.METABROADCAST);
+        title.setTitle("Title");
+        title.setId(Id.valueOf(1));
+        title.setThisOrChildLastUpdated(new DateTime(DateTimeZones.UTC));
+        Item other = new Item("uri2", "curie2", Publisher.METABROADCAST);
+        other.setTitle("pippo");
+        other.setId(Id.valueOf(2));
+        other.setThisOrChildLastUpdated(new DateTime(DateTimeZones.UTC));
+
+        EsContentIndexer contentIndexer = new EsContentIndexer(esClient);
+        contentIndexer.startAndWait();
+        contentIndexer.index(title);
+        contentIndexer.index(other);
+        Thread.sleep(1000);
+
+        EsContentSearcher contentSearcher = new EsContentSearcher(esClient);
+        assertEquals(ImmutableList.of(title.getId()), contentSearcher.search(query("t")).get().getIds());
+        assertEquals(ImmutableList.of(other.getId()), contentSearcher.search(query("p")).get().getIds());
+    }
+
+    @Test
+    public void testBoostsCurrentlyAvailableContent() throws Exception {
+        DateTime now = new DateTime(DateTimeZones.UTC);
+        Item expired = availableItem(1, now.minusDays(7), now.minusDays(1));
+        Item available = availableItem(2, now.minusDays(1), now.plusDays(1));
+        Item upcoming = availableItem(3, now.plusDays(1), now.plusDays(7));
+
+        EsContentIndexer contentIndexer = new EsContentIndexer(esClient);
+        contentIndexer.startAndWait();
+        contentIndexer.index(expired);
+        contentIndexer.index(available);
+        contentIndexer.index(upcoming);
+        Thread.sleep(1000);
+
+        EsContentSearcher contentSearcher = new EsContentSearcher(esClient);
+        SearchResults results = contentSearcher.search(new SearchQuery("title",
+                Selection.offsetBy(0),
+                ImmutableSet.<Specialization>of(),
+                ImmutableSet.<Publisher>of(),
+                1, 0f, 10f)).get();
+        assertEquals(3, results.getIds().size());
+        assertEquals(available.getId(), results.getIds().get(0));
+    }
+
+    private Item availableItem(long id, DateTime start, DateTime end) {
+        Policy policy = new Policy();
+        policy.setAvailabilityStart(start);
+        policy.setAvailabilityEnd(end);
+        Location location = new Location();
+        location.setPolicy(policy);
+        Encoding encoding = new Encoding();
+        encoding.addAvailableAt(location);
+        Version version = new Version();
+        version.addManifestedAs(encoding);
+
+        Item item = new Item("uri" + id, "curie" + id, Publisher.METABROADCAST);
+        item.setTitle("title");
+        item.setId(Id.valueOf(id));
+        item.addVersion(version);
+        item.setThisOrChildLastUpdated(new DateTime(DateTimeZones.UTC));
+        return item;
+    }
+
+    /* As created before the title prefix subfield was mapped.
+     */
+    private void createIndexWithoutPrefixField() throws Exception {
+        esClient.client().admin().indices().prepareCreate(EsSchema.INDEX_NAME)
+            .addMapping(EsContent.TOP_LEVEL_TYPE, XContentFactory.jsonBuilder()
+                .startObject()
+                    .startObject(EsContent.TOP_LEVEL_TYPE)
+                        .startObject("properties")
+                            .startObject(EsContent.PARENT_FLATTENED_TITLE)
+                                .field("type").value("string")
+                                .field("index").value("analyzed")
+                            .endObject()
+                        .endObject()
+                    .endObject()
+                .endObject())
+            .addMapping(EsContent.CHILD_TYPE, XContentFactory.jsonBuilder()
+                .startObject()
+                    .startObject(EsContent.CHILD_TYPE)
+                        .startObject("_parent")
+                            .field("type").value(EsContent.TOP_LEVEL_TYPE)
+                        .endObject()
+                        .startObject("properties")
+                            .startObject(EsContent.PARENT_FLATTENED_TITLE)
+                                .field("type").value("string")
+                                .field("index").value("analyzed")
+                            .endObject()
+                        .endObject()
+                    .endObject()
+                .endObject())
+            .execute().actionGet();
+    }
+
+    private SearchQuery query(String term) {
+        return new SearchQuery(term,
+            Selection.offsetBy(0),
+            ImmutableSet.<Specialization>of(),
+            ImmutableSet.<Publisher>of(),
+            1, 0f, 0f);
+    }
 }
@@ -0,0 +1,119 @@
+package org.atlasapi.media.content.schedule;
+
+import static com.metabroadcast.common.time.DateTimeZones.UTC;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.media.content.schedule.ScheduleRef.ScheduleRefEntry;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Compares filtering a day of schedule hits with {@link EsScheduleEntryFilter}
+ * against the original path, which built two {@link DateTime}s and an
+ * {@link Interval} per entry to apply a {@link ScheduleBroadcastFilter}.
+ * Each of a day's 48 half-hour items also has repeats earlier and later in
+ * the week which the filter rejects. Run with main(): it prints the time
+ * per day of each and the legacy to new ratio. Timings depend on the
+ * machine and JVM, and none are recorded with the change.
+ */
+public class EsScheduleEntryFilterBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int MEASURED_ITERATIONS = 100000;
+
+    private static final String CHANNEL = "http://example.com/channels/1";
+    private static final DateTime DAY = new DateTime(2012, 11, 17, 0, 0, 0, 0, UTC);
+    private static final Interval QUERY = new Interval(DAY, DAY.plusDays(1));
+    private static final List<List<EsScheduleEntry>> HITS = dayOfHits();
+
+    // consumed so the filtering isn't optimized away.
+    private static volatile int sink;
+
+    public static void main(String[] args) {
+        final ScheduleBroadcastFilter legacyFilter = ScheduleBroadcastFilter.valueOf(QUERY);
+        final EsScheduleEntryFilter filter = EsScheduleEntryFilter.valueOf(QUERY);
+        for (int run = 0; run < 3; run++) {
+            long legacyNanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    sink += legacyFilter(legacyFilter).size();
+                }
+            });
+            long nanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    sink += filter(filter).size();
+                }
+            });
+            report("legacy", legacyNanos);
+            report("millis", nanos);
+            System.out.println(String.format("%-8s %8.2fx", "ratio", (double) legacyNanos / nanos));
+        }
+    }
+
+    private static List<List<EsScheduleEntry>> dayOfHits() {
+        List<List<EsScheduleEntry>> hits = Lists.newArrayList();
+        for (int slot = 0; slot < 48; slot++) {
+            long start = DAY.plusMinutes(slot * 30).getMillis();
+            long end = start + TimeUnit.MINUTES.toMillis(30);
+            long repeat = TimeUnit.DAYS.toMillis(3);
+            hits.add(ImmutableList.of(
+                new EsScheduleEntry(slot, "b" + slot + "a", start - repeat, end - repeat),
+                new EsScheduleEntry(slot, "b" + slot + "b", start, end),
+                new EsScheduleEntry(slot, "b" + slot + "c", start + repeat, end + repeat)
+            ));
+        }
+        return hits;
+    }
+
+    private static List<ScheduleRefEntry> legacyFilter(ScheduleBroadcastFilter filter) {
+        List<ScheduleRefEntry> all = Lists.newArrayList();
+        for (List<EsScheduleEntry> hit : HITS) {
+            ImmutableList.Builder<ScheduleRefEntry> entries = ImmutableList.builder();
+            for (EsScheduleEntry entry : hit) {
+                DateTime start = new DateTime(entry.getStart(), UTC);
+                DateTime end = new DateTime(entry.getEnd(), UTC);
+                if (filter.apply(new Interval(start, end))) {
+                    entries.add(new ScheduleRefEntry(entry.getItemId(), CHANNEL, start, end, entry.getBroadcastId()));
+                }
+            }
+            all.addAll(entries.build());
+        }
+        return all;
+    }
+
+    private static List<ScheduleRefEntry> filter(EsScheduleEntryFilter filter) {
+        List<ScheduleRefEntry> all = Lists.newArrayList();
+        for (List<EsScheduleEntry> hit : HITS) {
+            for (EsScheduleEntry entry : hit) {
+                if (filter.apply(entry)) {
+                    all.add(new ScheduleRefEntry(entry.getItemId(), CHANNEL, 
+                        new DateTime(entry.getStart(), UTC), new DateTime(entry.getEnd(), UTC), 
+                        entry.getBroadcastId()));
+                }
+            }
+        }
+        return all;
+    }
+
+    private static long time(Runnable task) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            task.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.println(String.format("%-8s %8.1f us/day (%d ms total)", name,
+            (double) nanos / MEASURED_ITERATIONS / 1000, TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+}
@@ -0,0 +1,44 @@
+package org.atlasapi.media.content.schedule;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.joda.time.Interval;
+import org.junit.Test;
+
+public class EsScheduleEntryFilterTest {
+
+    private static final long[] TIMES = { 0, 9, 10, 11, 15, 19, 20, 21, 30 };
+
+    @Test
+    public void testAgreesWithScheduleBroadcastFilterForOverlappingInterval() {
+        assertAgreesWithScheduleBroadcastFilter(new Interval(10, 20));
+    }
+
+    @Test
+    public void testAgreesWithScheduleBroadcastFilterForEmptyInterval() {
+        assertAgreesWithScheduleBroadcastFilter(new Interval(10, 10));
+        assertAgreesWithScheduleBroadcastFilter(new Interval(20, 20));
+    }
+
+    @Test
+    public void testExcludesBroadcastsMeetingInterval() {
+        EsScheduleEntryFilter filter = EsScheduleEntryFilter.valueOf(new Interval(10, 20));
+        assertThat(filter.apply(0, 10), is(false));
+        assertThat(filter.apply(20, 30), is(false));
+        assertThat(filter.apply(19, 30), is(true));
+    }
+
+    private void assertAgreesWithScheduleBroadcastFilter(Interval interval) {
+        ScheduleBroadcastFilter expected = ScheduleBroadcastFilter.valueOf(interval);
+        EsScheduleEntryFilter filter = EsScheduleEntryFilter.valueOf(interval);
+        for (long start : TIMES) {
+            for (long end : TIMES) {
+                if (end >= start) {
+                    assertThat(start + "-" + end + " in " + interval, 
+                        filter.apply(start, end), is(expected.apply(new Interval(start, end))));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.atlasapi.media.content.schedule;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class EsScheduleEntryTest {
+
+    private static final String CHANNEL = "http://www.bbc.co.uk/services/bbcone";
+
+    @Test
+    public void testDecodesEncodedEntry() {
+        String encoded = EsScheduleEntry.encode(CHANNEL, 100, 200, "bcast1");
+        assertThat(EsScheduleEntry.decode(1, CHANNEL, encoded), is(new EsScheduleEntry(1, "bcast1", 100, 200)));
+    }
+
+    @Test
+    public void testDecodesEntryWithoutBroadcastId() {
+        String encoded = EsScheduleEntry.encode(CHANNEL, -100, 200, null);
+        assertThat(EsScheduleEntry.decode(1, CHANNEL, encoded), is(new EsScheduleEntry(1, null, -100, 200)));
+    }
+
+    @Test
+    public void testDoesntDecodeEntryOnOtherChannel() {
+        String encoded = EsScheduleEntry.encode(CHANNEL + "hd", 100, 200, "bcast1");
+        assertThat(EsScheduleEntry.decode(1, CHANNEL, encoded), is(nullValue()));
+        assertThat(EsScheduleEntry.decode(1, CHANNEL + "hd", EsScheduleEntry.encode(CHANNEL, 100, 200, "b")), is(nullValue()));
+    }
+}
@@ -0,0 +1,155 @@
+package org.atlasapi.media.content.schedule;
+
+import static com.metabroadcast.common.time.DateTimeZones.UTC;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+
+import org.atlasapi.media.content.schedule.EsScheduleIndexLifecycle.Plan;
+import org.atlasapi.media.content.schedule.EsScheduleIndexLifecycle.Retirement;
+import org.atlasapi.media.content.schedule.EsScheduleIndexNames.Granularity;
+import org.atlasapi.media.content.schedule.EsScheduleIndexNames.Tier;
+import org.elasticsearch.client.AdminClient;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.TimeMachine;
+
+public class EsScheduleIndexLifecycleTest {
+
+    private final Node esClient = Mockito.mock(Node.class);
+    private final Clock clock = new TimeMachine(new DateTime(2012, 11, 17, 0, 0, 0, 0, UTC));
+    private final EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(new EsScheduleIndexNames(esClient, clock));
+    private final EsScheduleIndexLifecycle lifecycle = new EsScheduleIndexLifecycle(esClient, clock, registry, Retirement.CLOSE, true);
+
+    @Test
+    public void testOptimizesFinishedMonthsOnly() {
+        Plan plan = lifecycle.plan(ImmutableSet.of("schedule-2012", "schedule-2012-10", "schedule-2012-11", "schedule-2012-12"));
+        assertThat(plan.toOptimize(), is(ImmutableSet.of("schedule-2012-10")));
+        assertThat(plan.toRetire(), is(ImmutableSet.<String>of()));
+    }
+
+    @Test
+    public void testRetiresMonthsOlderThanYearAndGraceMonth() {
+        Plan plan = lifecycle.plan(ImmutableSet.of("schedule-2011", "schedule-2011-09", "schedule-2011-10", "schedule-2011-11"));
+        assertThat(plan.toRetire(), is(ImmutableSet.of("schedule-2011-09")));
+        assertThat(plan.toOptimize(), is(ImmutableSet.of("schedule-2011-10", "schedule-2011-11")));
+    }
+
+    @Test
+    public void testDoesntRetireMonthWithoutYearIndex() {
+        Plan plan = lifecycle.plan(ImmutableSet.of("schedule-2011-09"));
+        assertThat(plan.toRetire(), is(ImmutableSet.<String>of()));
+    }
+
+    @Test
+    public void testRetiresDayIndicesOlderThanTheirTierLookback() {
+        EsScheduleIndexNames names = new EsScheduleIndexNames(esClient, clock, ImmutableList.of(
+            Tier.of(Granularity.DAY, Period.days(14)), Tier.of(Granularity.MONTH, Period.years(1))));
+        EsScheduleIndexLifecycle tiered = new EsScheduleIndexLifecycle(esClient, clock, 
+            new EsScheduleIndexRegistry(names), Retirement.CLOSE, true);
+        Plan plan = tiered.plan(ImmutableSet.of("schedule-2012", "schedule-2012-09-01", "schedule-2012-10-10", "schedule-2012-11-16"));
+        assertThat(plan.toRetire(), is(ImmutableSet.of("schedule-2012-09-01")));
+        assertThat(plan.toOptimize(), is(ImmutableSet.of("schedule-2012-10-10", "schedule-2012-11-16")));
+    }
+
+    @Test
+    public void testOptimizesFinishedIndexOfManySegments() throws Exception {
+        Node node = localNode();
+        try {
+            IndicesAdminClient indices = spyIndices(node);
+            writeSegments(node, "schedule-2012-10", 2);
+            
+            lifecycle(node, indices, "schedule-2012-10").run();
+            
+            verify(indices).prepareOptimize("schedule-2012-10");
+        } finally {
+            node.close();
+        }
+    }
+
+    @Test
+    public void testDoesntOptimizeFinishedIndexOfOneSegment() throws Exception {
+        Node node = localNode();
+        try {
+            IndicesAdminClient indices = spyIndices(node);
+            writeSegments(node, "schedule-2012-10", 1);
+            
+            lifecycle(node, indices, "schedule-2012-10").run();
+            
+            verify(indices, never()).prepareOptimize(Matchers.<String>anyVararg());
+        } finally {
+            node.close();
+        }
+    }
+
+    @Test
+    public void testParsesPartitionEnd() {
+        assertThat(EsScheduleIndexNames.partitionEnd("schedule-2011-12"), 
+            is(new DateTime(2012, 1, 1, 0, 0, 0, 0, UTC).getMillis()));
+        assertThat(EsScheduleIndexNames.partitionEnd("schedule-2012-02-29"), 
+            is(new DateTime(2012, 3, 1, 0, 0, 0, 0, UTC).getMillis()));
+        assertThat(EsScheduleIndexNames.partitionEnd("schedule-2013-w01"), 
+            is(new DateTime(2013, 1, 7, 0, 0, 0, 0, UTC).getMillis()));
+        assertThat(EsScheduleIndexNames.partitionEnd("schedule-2011"), is((Long) null));
+        assertThat(EsScheduleIndexNames.partitionEnd("schedule-2011-13"), is((Long) null));
+        assertThat(EsScheduleIndexNames.partitionEnd("schedule-2011-02-29"), is((Long) null));
+        assertThat(EsScheduleIndexNames.partitionEnd("schedule-2011-w53"), is((Long) null));
+    }
+
+    private Node localNode() {
+        return NodeBuilder.nodeBuilder()
+            .local(true).clusterName(UUID.randomUUID().toString())
+            .build().start();
+    }
+
+    private IndicesAdminClient spyIndices(Node node) {
+        return spy(node.client().admin().indices());
+    }
+
+    private EsScheduleIndexLifecycle lifecycle(Node node, IndicesAdminClient indices, String index) {
+        Client client = spy(node.client());
+        AdminClient admin = spy(client.admin());
+        doReturn(admin).when(client).admin();
+        doReturn(indices).when(admin).indices();
+        Node spied = Mockito.mock(Node.class);
+        when(spied.client()).thenReturn(client);
+        EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(new EsScheduleIndexNames(spied, clock));
+        registry.register(index);
+        return new EsScheduleIndexLifecycle(spied, clock, registry, Retirement.CLOSE, false);
+    }
+
+    /* A single shard, refreshed after each document so each is written to
+     * its own segment.
+     */
+    private void writeSegments(Node node, String index, int segments) {
+        node.client().admin().indices().prepareCreate(index)
+            .setSettings(ImmutableSettings.settingsBuilder()
+                .put("number_of_shards", 1)
+                .put("number_of_replicas", 0))
+            .execute().actionGet();
+        for (int i = 0; i < segments; i++) {
+            node.client().prepareIndex(index, "broadcast", String.valueOf(i))
+                .setSource("{\"id\":" + i + "}")
+                .execute().actionGet();
+            node.client().admin().indices().prepareRefresh(index).execute().actionGet();
+        }
+    }
+}
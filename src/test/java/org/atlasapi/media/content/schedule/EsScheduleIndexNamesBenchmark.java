@@ -0,0 +1,123 @@
+package org.atlasapi.media.content.schedule;
+
+import static com.metabroadcast.common.time.DateTimeZones.UTC;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.node.Node;
+import org.joda.time.DateTime;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSet.Builder;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.TimeMachine;
+
+/**
+ * Compares {@link EsScheduleIndexNames} against the original implementation
+ * which looped with {@link DateTime#plusMonths(int)} and formatted every
+ * name with {@link String#format(String, Object...)}. Run with main(): it
+ * prints the time per call of each and the legacy to new ratio. Timings
+ * depend on the machine and JVM, and none are recorded with the change.
+ */
+public class EsScheduleIndexNamesBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int MEASURED_ITERATIONS = 1000000;
+
+    private static final Clock clock = new TimeMachine(new DateTime(2012, 11, 17, 0, 0, 0, 0, UTC));
+    private static final EsScheduleIndexNames names = new EsScheduleIndexNames(Mockito.mock(Node.class), clock);
+
+    private static final DateTime broadcastStart = new DateTime(2012, 10, 31, 23, 30, 0, 0, UTC);
+    private static final DateTime broadcastEnd = broadcastStart.plusHours(1);
+    private static final DateTime queryStart = new DateTime(2012, 9, 1, 0, 0, 0, 0, UTC);
+    private static final DateTime queryEnd = queryStart.plusMonths(3);
+
+    public static void main(String[] args) {
+        for (int run = 0; run < 3; run++) {
+            compare("indexing", time(new Runnable() {
+                @Override
+                public void run() {
+                    legacyIndexingNamesFor(broadcastStart, broadcastEnd);
+                }
+            }), time(new Runnable() {
+                @Override
+                public void run() {
+                    names.indexingNamesFor(broadcastStart, broadcastEnd);
+                }
+            }));
+            compare("querying", time(new Runnable() {
+                @Override
+                public void run() {
+                    legacyQueryingNamesFor(queryStart, queryEnd);
+                }
+            }), time(new Runnable() {
+                @Override
+                public void run() {
+                    names.queryingNamesFor(queryStart, queryEnd);
+                }
+            }));
+        }
+    }
+
+    private static long time(Runnable task) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            task.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void compare(String name, long legacyNanos, long nanos) {
+        report("legacy " + name, legacyNanos);
+        report(name, nanos);
+        System.out.println(String.format("%-16s %8.2fx", name + " ratio", (double) legacyNanos / nanos));
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.println(String.format("%-16s %8.1f ns/op (%d ms total)", name,
+            (double) nanos / MEASURED_ITERATIONS, TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+
+    private static ImmutableSet<String> legacyIndexingNamesFor(DateTime start, DateTime end) {
+        start = start.withZone(UTC);
+        end = end.withZone(UTC);
+        Builder<String> names = ImmutableSet.builder();
+        names.add(legacyYearIndex(start)).add(legacyYearIndex(end));
+        DateTime aYearAgo = clock.now().minusYears(1);
+        if (start.isAfter(aYearAgo) || end.isAfter(aYearAgo)) {
+            for (DateTime cur = start; cur.isBefore(end); cur = cur.plusMonths(1)) {
+                names.add(legacyMonthIndex(cur));
+            }
+        }
+        return names.build();
+    }
+
+    private static ImmutableSet<String> legacyQueryingNamesFor(DateTime start, DateTime end) {
+        start = start.withZone(UTC);
+        end = end.withZone(UTC);
+        Builder<String> names = ImmutableSet.builder();
+        DateTime aYearAgo = clock.now().minusYears(1);
+        if (start.isAfter(aYearAgo)) {
+            for (DateTime cur = start; cur.isBefore(end) || cur.isEqual(end); cur = cur.plusMonths(1)) {
+                names.add(legacyMonthIndex(cur));
+            }
+        } else {
+            for (DateTime cur = start; cur.isBefore(end) || cur.isEqual(end); cur = cur.plusYears(1)) {
+                names.add(legacyYearIndex(cur));
+            }
+        }
+        return names.build();
+    }
+
+    private static String legacyMonthIndex(DateTime dateTime) {
+        return String.format("schedule-%04d-%02d", dateTime.getYear(), dateTime.getMonthOfYear());
+    }
+
+    private static String legacyYearIndex(DateTime dateTime) {
+        return String.format("schedule-%04d", dateTime.getYear());
+    }
+}
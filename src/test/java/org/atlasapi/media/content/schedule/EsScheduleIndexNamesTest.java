@@ -2,23 +2,36 @@ package org.atlasapi.media.content.schedule;
 
 import static com.metabroadcast.common.time.DateTimeZones.UTC;
 import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 
+import java.util.List;
+import java.util.Set;
+
 import org.atlasapi.media.EsSchema;
 import org.atlasapi.media.content.schedule.EsScheduleIndexNames;
+import org.atlasapi.media.content.schedule.EsScheduleIndexNames.Granularity;
+import org.atlasapi.media.content.schedule.EsScheduleIndexNames.Tier;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.joda.time.Interval;
+import org.joda.time.Period;
 import org.junit.Test;
 
-import com.metabroadcast.common.time.Clock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.metabroadcast.common.time.TimeMachine;
 
 public class EsScheduleIndexNamesTest {
 
     private final Node esClient = NodeBuilder.nodeBuilder().local(true).clusterName(EsSchema.CLUSTER_NAME).build().start();
     private final DateTime time = new DateTime(2012, 11, 17, 0, 0, 0, 0, UTC);
-    private final Clock clock = new TimeMachine(time);
+    private final TimeMachine clock = new TimeMachine(time);
     private final EsScheduleIndexNames scheduleNames = new EsScheduleIndexNames(esClient, clock);
     
     @Test
@@ -81,4 +94,117 @@ public class EsScheduleIndexNamesTest {
                     "schedule-2011", "schedule-2010"));
     }
 
+    @Test
+    public void testGetsEveryMonthForQueryStartingAtEndOfMonth() {
+        DateTime start = new DateTime(2012, 9, 30, 0, 0, 0, 0, UTC);
+        DateTime end = new DateTime(2012, 11, 1, 12, 0, 0, 0, UTC);
+        assertThat(scheduleNames.queryingNamesFor(start, end), 
+            is(ImmutableSet.of("schedule-2012-09", "schedule-2012-10", 
+                "schedule-2012-11")));
+    }
+
+    @Test
+    public void testDoesntGetMonthIndexForBroadcastEndingAtStartOfMonth() {
+        DateTime start = new DateTime(2012, 10, 31, 23, 0, 0, 0, UTC);
+        DateTime end = new DateTime(2012, 11, 1, 0, 0, 0, 0, UTC);
+        assertThat(scheduleNames.indexingNamesFor(start, end), 
+            is(ImmutableSet.of("schedule-2012", "schedule-2012-10")));
+    }
+
+    private final EsScheduleIndexNames dayNames = new EsScheduleIndexNames(esClient, clock, ImmutableList.of(
+        Tier.of(Granularity.DAY, Period.days(14)), Tier.of(Granularity.MONTH, Period.years(1))));
+    private final EsScheduleIndexNames weekNames = new EsScheduleIndexNames(esClient, clock, ImmutableList.of(
+        Tier.of(Granularity.WEEK, Period.days(14)), Tier.of(Granularity.MONTH, Period.years(1))));
+
+    @Test
+    public void testGetsEveryTierForRecentBroadcastSpanningMidnight() {
+        DateTime start = new DateTime(2012, 11, 16, 23, 0, 0, 0, UTC);
+        DateTime end = new DateTime(2012, 11, 17, 1, 0, 0, 0, UTC);
+        assertThat(dayNames.indexingNamesFor(start, end), 
+            is(ImmutableSet.of("schedule-2012", "schedule-2012-11", 
+                "schedule-2012-11-16", "schedule-2012-11-17")));
+    }
+
+    @Test
+    public void testDoesntGetDayIndexForBroadcastEndingAtMidnight() {
+        DateTime start = new DateTime(2012, 11, 16, 23, 0, 0, 0, UTC);
+        DateTime end = new DateTime(2012, 11, 17, 0, 0, 0, 0, UTC);
+        assertThat(dayNames.indexingNamesFor(start, end), 
+            is(ImmutableSet.of("schedule-2012", "schedule-2012-11", "schedule-2012-11-16")));
+    }
+
+    @Test
+    public void testQueriesDayIndicesOnlyWithinDayLookback() {
+        DateTime horizon = time.minusDays(14);
+        assertThat(dayNames.queryingNamesFor(horizon, horizon.plusHours(3)), 
+            is(ImmutableSet.of("schedule-2012-11")));
+        assertThat(dayNames.queryingNamesFor(horizon.plusMillis(1), horizon.plusHours(3)), 
+            is(ImmutableSet.of("schedule-2012-11-03")));
+        assertThat(dayNames.queryingNamesFor(time.plusHours(22), time.plusHours(26)), 
+            is(ImmutableSet.of("schedule-2012-11-17", "schedule-2012-11-18")));
+    }
+
+    @Test
+    public void testQueriesCoarserTierForIntervalSpanningTooManyDays() {
+        assertThat(dayNames.queryingNamesFor(time, time.plusDays(EsScheduleIndexNames.MAX_QUERIED_PARTITIONS)), 
+            is(ImmutableSet.of("schedule-2012-11", "schedule-2012-12")));
+    }
+
+    @Test
+    public void testWeekIndicesAreIsoWeeksAcrossYearBoundary() {
+        DateTime start = new DateTime(2012, 12, 30, 23, 0, 0, 0, UTC);
+        DateTime end = new DateTime(2012, 12, 31, 1, 0, 0, 0, UTC);
+        assertThat(weekNames.indexingNamesFor(start, end), 
+            is(ImmutableSet.of("schedule-2012", "schedule-2012-12", 
+                "schedule-2012-w52", "schedule-2013-w01")));
+        assertThat(weekNames.queryingNamesFor(end, end.plusHours(1)), 
+            is(ImmutableSet.of("schedule-2013-w01")));
+    }
+
+    @Test
+    public void testQueryingNamesIncludeIndexOfEveryOverlappingBroadcast() {
+        List<EsScheduleIndexNames> strategies = ImmutableList.of(scheduleNames, dayNames, weekNames,
+            new EsScheduleIndexNames(esClient, clock, ImmutableList.of(Tier.of(Granularity.DAY, Period.days(3)), 
+                Tier.of(Granularity.WEEK, Period.days(14)), Tier.of(Granularity.MONTH, Period.years(1)))));
+        Duration[] lengths = { Duration.ZERO, Duration.standardHours(1), Duration.standardHours(30) };
+        for (EsScheduleIndexNames names : strategies) {
+            clock.jumpTo(time);
+            List<Interval> broadcasts = Lists.newArrayList();
+            List<Set<String>> broadcastNames = Lists.newArrayList();
+            for (DateTime start = time.minusDays(30); start.isBefore(time.plusDays(30)); start = start.plusHours(11)) {
+                for (Duration length : lengths) {
+                    Interval broadcast = new Interval(start, length);
+                    broadcasts.add(broadcast);
+                    broadcastNames.add(names.indexingNamesFor(broadcast.getStart(), broadcast.getEnd()));
+                }
+            }
+            // queried now and after some content has aged out of the finer tiers.
+            for (DateTime now : ImmutableList.of(time, time.plusDays(10))) {
+                clock.jumpTo(now);
+                for (DateTime start = time.minusDays(30); start.isBefore(time.plusDays(30)); start = start.plusHours(13)) {
+                    for (Duration length : lengths) {
+                        Interval query = new Interval(start, length);
+                        Set<String> queryNames = names.queryingNamesFor(query.getStart(), query.getEnd());
+                        for (int i = 0; i < broadcasts.size(); i++) {
+                            if (overlaps(broadcasts.get(i), query)) {
+                                assertFalse(broadcasts.get(i) + " not found by " + query + " with " + queryNames, 
+                                    Sets.intersection(broadcastNames.get(i), queryNames).isEmpty());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // as filtered by the schedule query.
+    private boolean overlaps(Interval broadcast, Interval query) {
+        if (query.toDurationMillis() == 0) {
+            return broadcast.getStartMillis() <= query.getStartMillis()
+                && broadcast.getEndMillis() > query.getStartMillis();
+        }
+        return broadcast.getStartMillis() < query.getEndMillis() 
+            && broadcast.getEndMillis() > query.getStartMillis();
+    }
+
 }
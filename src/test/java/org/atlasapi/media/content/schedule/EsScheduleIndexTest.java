@@ -5,6 +5,8 @@ import static org.atlasapi.media.entity.Publisher.METABROADCAST;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -15,8 +17,12 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 import org.atlasapi.media.channel.Channel;
 import org.atlasapi.media.common.Id;
+import org.atlasapi.media.content.EsBroadcast;
+import org.atlasapi.media.content.EsContent;
 import org.atlasapi.media.content.EsContentIndexer;
 import org.atlasapi.media.content.schedule.EsScheduleIndex;
+import org.atlasapi.media.content.schedule.EsScheduleIndexNames.Granularity;
+import org.atlasapi.media.content.schedule.EsScheduleIndexNames.Tier;
 import org.atlasapi.media.content.schedule.ScheduleRef;
 import org.atlasapi.media.content.schedule.ScheduleRef.ScheduleRefEntry;
 import org.atlasapi.media.entity.Brand;
@@ -32,6 +38,7 @@ import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
+import org.joda.time.Period;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -41,6 +48,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.time.Clock;
 import com.metabroadcast.common.time.DateTimeZones;
@@ -356,6 +364,339 @@ public class EsScheduleIndexTest {
         assertThat(scheduleRef.getScheduleEntries().size(), is(1));
         
     }
+    
+    @Test
+    public void testResolvesSchedulesForManyChannels() throws Exception {
+        
+        Interval interval = new Interval(0, 100, DateTimeZones.UTC);
+        
+        Item channel1Item = itemWithBroadcast(1L, "one", channel1.getCanonicalUri(), interval.getStart(), interval.getEnd());
+        Item channel2Item = itemWithBroadcast(2L, "two", channel2.getCanonicalUri(), interval.getStart(), interval.getEnd());
+        
+        contentIndexer.index(channel1Item);
+        contentIndexer.index(channel2Item);
+        Thread.sleep(1000);
+        scheduleIndex.updateExistingIndices();
+        
+        Map<String, ListenableFuture<ScheduleRef>> schedules = scheduleIndex.resolveSchedules(METABROADCAST, ImmutableList.of(channel1, channel2), interval);
+        
+        ScheduleRef channel1Ref = schedules.get(channel1.getCanonicalUri()).get(5, TimeUnit.SECONDS);
+        assertThat(channel1Ref.getScheduleEntries().size(), is(1));
+        assertThat(channel1Ref.getScheduleEntries().get(0).getItemId(), is(channel1Item.getId()));
+        
+        ScheduleRef channel2Ref = schedules.get(channel2.getCanonicalUri()).get(5, TimeUnit.SECONDS);
+        assertThat(channel2Ref.getScheduleEntries().size(), is(1));
+        assertThat(channel2Ref.getScheduleEntries().get(0).getItemId(), is(channel2Item.getId()));
+    }
+    
+    @Test
+    public void testFlatLayoutReturnsContentOverlappingInterval() throws Exception {
+        EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(new EsScheduleIndexNames(esClient, clock));
+        EsContentIndexer flatIndexer = EsContentIndexer.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleLayout(EsScheduleLayout.FLAT)
+            .build();
+        EsScheduleIndex flatIndex = EsScheduleIndex.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleLayout(EsScheduleLayout.FLAT)
+            .build();
+        flatIndexer.startAndWait();
+        
+        DateTime start = new DateTime(DateTimeZones.UTC);
+        Item overlapStart = itemWithBroadcast(1L, "overlapStart", channel1.getCanonicalUri(), start, start.plusHours(1));
+        Item overlapEnd = itemWithBroadcast(2L, "overlapEnd", channel1.getCanonicalUri(), start.plusHours(2), start.plusHours(3));
+        Item otherChannel = itemWithBroadcast(3L, "other", channel2.getCanonicalUri(), start, start.plusHours(1));
+        
+        flatIndexer.index(overlapEnd);
+        flatIndexer.index(overlapStart);
+        flatIndexer.index(otherChannel);
+        Thread.sleep(1000);
+        
+        ListenableFuture<ScheduleRef> futureRef = flatIndex.resolveSchedule(METABROADCAST, channel1, new Interval(start.plusMinutes(30), start.plusMinutes(150)));
+        ImmutableList<ScheduleRefEntry> entries = futureRef.get(5, TimeUnit.SECONDS).getScheduleEntries();
+        
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(0).getItemId(), is(overlapStart.getId()));
+        assertThat(entries.get(1).getItemId(), is(overlapEnd.getId()));
+    }
+    
+    @Test
+    public void testReturnsEveryEntryOfChannelDenserThanFirstPage() throws Exception {
+        DateTime start = new DateTime(DateTimeZones.UTC);
+        
+        int broadcasts = 150;
+        for (int i = 0; i < broadcasts; i++) {
+            DateTime broadcastStart = start.plusMinutes(i);
+            contentIndexer.index(itemWithBroadcast(i + 1L, "dense" + i, channel1.getCanonicalUri(), broadcastStart, broadcastStart.plusMinutes(1)));
+        }
+        Thread.sleep(1000);
+        scheduleIndex.updateExistingIndices();
+        
+        ListenableFuture<ScheduleRef> futureRef = scheduleIndex.resolveSchedule(METABROADCAST, channel1, new Interval(start, start.plusMinutes(broadcasts)));
+        ImmutableList<ScheduleRefEntry> entries = futureRef.get(5, TimeUnit.SECONDS).getScheduleEntries();
+        
+        assertThat(entries.size(), is(broadcasts));
+    }
+    
+    @Test
+    public void testReturnsEveryEntryWhenPageEndsWithinSharedStartTime() throws Exception {
+        EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(new EsScheduleIndexNames(esClient, clock));
+        EsContentIndexer flatIndexer = EsContentIndexer.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleLayout(EsScheduleLayout.FLAT)
+            .build();
+        EsScheduleIndex flatIndex = EsScheduleIndex.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleLayout(EsScheduleLayout.FLAT)
+            .build();
+        flatIndexer.startAndWait();
+        
+        DateTime start = new DateTime(DateTimeZones.UTC);
+        int broadcasts = 150;
+        for (int i = 0; i < broadcasts; i++) {
+            flatIndexer.index(itemWithBroadcast(i + 1L, "shared" + i, channel1.getCanonicalUri(), start, start.plusMinutes(1)));
+        }
+        Thread.sleep(1000);
+        
+        ListenableFuture<ScheduleRef> futureRef = flatIndex.resolveSchedule(METABROADCAST, channel1, new Interval(start, start.plusMinutes(1)));
+        ImmutableList<ScheduleRefEntry> entries = futureRef.get(5, TimeUnit.SECONDS).getScheduleEntries();
+        
+        Set<Id> itemIds = Sets.newHashSet();
+        for (ScheduleRefEntry entry : entries) {
+            itemIds.add(entry.getItemId());
+        }
+        assertThat(entries.size(), is(broadcasts));
+        assertThat(itemIds.size(), is(broadcasts));
+    }
+
+    @Test
+    public void testReturnsBroadcastAcrossMidnightOnceFromTieredIndices() throws Exception {
+        EsScheduleIndexNames tieredNames = new EsScheduleIndexNames(esClient, clock, ImmutableList.of(
+            Tier.of(Granularity.DAY, Period.days(14)), Tier.of(Granularity.WEEK, Period.years(1))));
+        EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(tieredNames);
+        ScheduleDayCache cache = new ScheduleDayCache(clock, 100, 5, TimeUnit.MINUTES);
+        EsContentIndexer tieredIndexer = EsContentIndexer.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleCache(cache)
+            .build();
+        EsScheduleIndex tieredIndex = EsScheduleIndex.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .build();
+        EsScheduleIndex cachedIndex = EsScheduleIndex.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleCache(cache)
+            .build();
+        tieredIndexer.startAndWait();
+        
+        DateTime midnight = new DateTime(2012, 11, 20, 0, 0, 0, 0, DateTimeZones.UTC);
+        Item item = itemWithBroadcast(1L, "late", channel1.getCanonicalUri(), midnight.minusHours(1), midnight.plusHours(1));
+        tieredIndexer.index(item);
+        Thread.sleep(1000);
+        
+        Interval interval = new Interval(midnight.minusHours(2), midnight.plusHours(2));
+        for (EsScheduleIndex index : ImmutableList.of(tieredIndex, cachedIndex)) {
+            ImmutableList<ScheduleRefEntry> entries = index.resolveSchedule(METABROADCAST, channel1, interval)
+                .get(5, TimeUnit.SECONDS).getScheduleEntries();
+            assertThat(entries.size(), is(1));
+            assertThat(entries.get(0).getItemId(), is(item.getId()));
+        }
+    }
+    
+    @Test
+    public void testResolvesDocumentsWrittenWithoutScheduleEntries() throws Exception {
+        DateTime start = clock.now();
+        Item item = itemWithBroadcast(1L, "item", channel1.getCanonicalUri(), start, start.plusHours(1));
+        contentIndexer.index(item);
+        
+        EsContent legacy = new EsContent()
+            .id(2L)
+            .uri("legacy")
+            .publisher(METABROADCAST.key())
+            .broadcasts(ImmutableList.of(
+                new EsBroadcast()
+                    .id("legacy1")
+                    .channel(channel1.getCanonicalUri())
+                    .transmissionTime(start.plusHours(1).toDate())
+                    .transmissionEndTime(start.plusHours(2).toDate()),
+                new EsBroadcast()
+                    .id("legacy2")
+                    .channel(channel2.getCanonicalUri())
+                    .transmissionTime(start.plusHours(1).toDate())
+                    .transmissionEndTime(start.plusHours(2).toDate())))
+            .hasChildren(false);
+        for (String index : new EsScheduleIndexNames(esClient, clock).indexingNamesFor(start, start.plusHours(2))) {
+            esClient.client().prepareIndex(index, EsContent.TOP_LEVEL_TYPE, "legacy")
+                .setSource(legacy.toSourceBytes())
+                .execute().actionGet();
+        }
+        Thread.sleep(1000);
+        scheduleIndex.updateExistingIndices();
+        
+        ListenableFuture<ScheduleRef> futureRef = scheduleIndex.resolveSchedule(METABROADCAST, channel1, new Interval(start, start.plusHours(2)));
+        ImmutableList<ScheduleRefEntry> entries = futureRef.get(5, TimeUnit.SECONDS).getScheduleEntries();
+        
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(0).getItemId(), is(item.getId()));
+        assertThat(entries.get(1).getItemId(), is(Id.valueOf(2)));
+    }
+
+    @Test
+    public void testResolvesThroughCacheWriteReadBeforeIndexRefresh() throws Exception {
+        TimeMachine cacheClock = new TimeMachine(clock.now());
+        ScheduleDayCache cache = new ScheduleDayCache(cacheClock, 100, 5, TimeUnit.MINUTES, 2000);
+        EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(new EsScheduleIndexNames(esClient, clock));
+        EsContentIndexer cachingIndexer = EsContentIndexer.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleCache(cache)
+            .build();
+        EsScheduleIndex cachedIndex = EsScheduleIndex.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleCache(cache)
+            .build();
+        cachingIndexer.startAndWait();
+        
+        DateTime start = clock.now();
+        Interval interval = new Interval(start, start.plusHours(3));
+        Item item = itemWithBroadcast(1L, "item", channel1.getCanonicalUri(), start.plusHours(1), start.plusHours(2));
+        
+        cachingIndexer.index(item);
+        cachedIndex.resolveSchedule(METABROADCAST, channel1, interval).get(5, TimeUnit.SECONDS);
+        Thread.sleep(1000);
+        cacheClock.jumpTo(cacheClock.now().plusSeconds(2));
+        
+        ImmutableList<ScheduleRefEntry> entries = cachedIndex.resolveSchedule(METABROADCAST, channel1, interval)
+            .get(5, TimeUnit.SECONDS).getScheduleEntries();
+        
+        assertThat(entries.size(), is(1));
+        assertThat(entries.get(0).getItemId(), is(item.getId()));
+    }
+
+    @Test
+    public void testResolvesSchedulesForManyChannelsThroughCache() throws Exception {
+        ScheduleDayCache cache = new ScheduleDayCache(clock, 100, 5, TimeUnit.MINUTES);
+        EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(new EsScheduleIndexNames(esClient, clock));
+        EsContentIndexer cachingIndexer = EsContentIndexer.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleCache(cache)
+            .build();
+        EsScheduleIndex cachedIndex = EsScheduleIndex.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleCache(cache)
+            .build();
+        cachingIndexer.startAndWait();
+        
+        DateTime start = clock.now();
+        Interval interval = new Interval(start, start.plusHours(3));
+        Item item = itemWithBroadcast(1L, "item", channel1.getCanonicalUri(), start.plusHours(1), start.plusHours(2));
+        cachingIndexer.index(item);
+        Thread.sleep(1000);
+        
+        for (ListenableFuture<ScheduleRef> schedule : cachedIndex.resolveSchedules(METABROADCAST, 
+                ImmutableList.of(channel1, channel2), interval).values()) {
+            schedule.get(5, TimeUnit.SECONDS);
+        }
+        Map<String, ListenableFuture<ScheduleRef>> schedules = 
+            cachedIndex.resolveSchedules(METABROADCAST, ImmutableList.of(channel1, channel2), interval);
+        ImmutableList<ScheduleRefEntry> entries = schedules.get(channel1.getCanonicalUri())
+            .get(5, TimeUnit.SECONDS).getScheduleEntries();
+        schedules.get(channel2.getCanonicalUri()).get(5, TimeUnit.SECONDS);
+        
+        assertThat(entries.size(), is(1));
+        assertThat(entries.get(0).getItemId(), is(item.getId()));
+        assertThat(cache.stats().hitCount(), is(2L));
+    }
+    
+    @Test
+    public void testCachedScheduleDropsBroadcastMovedToAnotherDay() throws Exception {
+        TimeMachine cacheClock = new TimeMachine(clock.now());
+        ScheduleDayCache cache = new ScheduleDayCache(cacheClock, 100, 5, TimeUnit.MINUTES, 2000);
+        EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(new EsScheduleIndexNames(esClient, clock));
+        EsContentIndexer cachingIndexer = EsContentIndexer.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleCache(cache)
+            .build();
+        EsScheduleIndex cachedIndex = EsScheduleIndex.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleCache(cache)
+            .build();
+        cachingIndexer.startAndWait();
+        
+        DateTime start = clock.now();
+        Interval interval = new Interval(start, start.plusHours(3));
+        cachingIndexer.index(itemWithBroadcast(1L, "item", channel1.getCanonicalUri(), start.plusHours(1), start.plusHours(2)));
+        Thread.sleep(1000);
+        assertThat(cachedIndex.resolveSchedule(METABROADCAST, channel1, interval)
+            .get(5, TimeUnit.SECONDS).getScheduleEntries().size(), is(1));
+        
+        DateTime nextDay = start.plusDays(1);
+        cachingIndexer.index(itemWithBroadcast(1L, "item", channel1.getCanonicalUri(), nextDay, nextDay.plusHours(1)));
+        Thread.sleep(1000);
+        cacheClock.jumpTo(cacheClock.now().plusSeconds(2));
+        
+        assertThat(cachedIndex.resolveSchedule(METABROADCAST, channel1, interval)
+            .get(5, TimeUnit.SECONDS).getScheduleEntries().size(), is(0));
+    }
+
+    @Test
+    public void testDoesntReturnBroadcastsMovedOrRemovedFromFlatLayout() throws Exception {
+        EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(new EsScheduleIndexNames(esClient, clock));
+        EsContentIndexer flatIndexer = EsContentIndexer.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleLayout(EsScheduleLayout.FLAT)
+            .build();
+        EsScheduleIndex flatIndex = EsScheduleIndex.builder(esClient)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withScheduleLayout(EsScheduleLayout.FLAT)
+            .build();
+        flatIndexer.startAndWait();
+        
+        DateTime start = clock.now();
+        flatIndexer.index(itemWithBroadcast(1L, "moved", channel1.getCanonicalUri(), start, start.plusHours(1)));
+        flatIndexer.index(itemWithBroadcast(2L, "removed", channel1.getCanonicalUri(), start.plusHours(1), start.plusHours(2)));
+        Item moved = itemWithBroadcast(1L, "moved", channel2.getCanonicalUri(), start.plusDays(1), start.plusDays(1).plusHours(1));
+        flatIndexer.index(moved);
+        flatIndexer.index(itemWithoutBroadcasts(2L, "removed"));
+        Thread.sleep(1000);
+        
+        ImmutableList<ScheduleRefEntry> oldEntries = flatIndex.resolveSchedule(METABROADCAST, channel1, 
+            new Interval(start, start.plusHours(2))).get(5, TimeUnit.SECONDS).getScheduleEntries();
+        ImmutableList<ScheduleRefEntry> newEntries = flatIndex.resolveSchedule(METABROADCAST, channel2, 
+            new Interval(start.plusDays(1), start.plusDays(1).plusHours(1))).get(5, TimeUnit.SECONDS).getScheduleEntries();
+        
+        assertThat(oldEntries.size(), is(0));
+        assertThat(newEntries.size(), is(1));
+        assertThat(newEntries.get(0).getItemId(), is(moved.getId()));
+    }
+    
+    @Test
+    public void testDoesntReturnBroadcastsRemovedFromItem() throws Exception {
+        DateTime start = clock.now();
+        Interval interval = new Interval(start, start.plusHours(1));
+        contentIndexer.index(itemWithBroadcast(1L, "removed", channel1.getCanonicalUri(), start, start.plusHours(1)));
+        contentIndexer.index(itemWithoutBroadcasts(1L, "removed"));
+        Thread.sleep(1000);
+        scheduleIndex.updateExistingIndices();
+        
+        ImmutableList<ScheduleRefEntry> entries = scheduleIndex.resolveSchedule(METABROADCAST, channel1, interval)
+            .get(5, TimeUnit.SECONDS).getScheduleEntries();
+        
+        assertThat(entries.size(), is(0));
+    }
      
     private Item itemWithBroadcast(Long id, String itemUri, String channelUri, DateTime start, DateTime end) {
         
@@ -370,4 +711,11 @@ public class EsScheduleIndexTest {
         return item;
     }
     
+    private Item itemWithoutBroadcasts(Long id, String itemUri) {
+        Item item = new Item(itemUri, itemUri, Publisher.METABROADCAST);
+        item.setId(Id.valueOf(id));
+        item.addVersion(new Version());
+        return item;
+    }
+    
 }
@@ -0,0 +1,209 @@
+package org.atlasapi.media.content.schedule;
+
+import static org.atlasapi.media.content.EsBroadcast.CHANNEL;
+import static org.atlasapi.media.content.EsBroadcast.TRANSMISSION_END_TIME;
+import static org.atlasapi.media.content.EsBroadcast.TRANSMISSION_TIME;
+import static org.atlasapi.media.content.EsContent.BROADCASTS;
+import static org.atlasapi.media.content.EsContent.CHILD_TYPE;
+import static org.atlasapi.media.content.EsContent.ID;
+import static org.atlasapi.media.content.EsContent.PUBLISHER;
+import static org.atlasapi.media.content.EsContent.SCHEDULE_ENTRIES;
+import static org.atlasapi.media.content.EsContent.TOP_LEVEL_TYPE;
+import static org.elasticsearch.index.query.FilterBuilders.andFilter;
+import static org.elasticsearch.index.query.FilterBuilders.nestedFilter;
+import static org.elasticsearch.index.query.FilterBuilders.rangeFilter;
+import static org.elasticsearch.index.query.FilterBuilders.termFilter;
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.filteredQuery;
+import static org.elasticsearch.index.query.QueryBuilders.nestedQuery;
+import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.media.common.Id;
+import org.atlasapi.media.content.EsContentIndexer;
+import org.atlasapi.media.entity.Broadcast;
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.media.entity.Version;
+import org.atlasapi.media.util.EsBulkAccumulator;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.DateTimeZones;
+import com.metabroadcast.common.time.TimeMachine;
+
+/**
+ * Compares the latency of the schedule query against the original one,
+ * which scored a nested bool query with ±12h bounds and filtered the same
+ * broadcasts again, on a local node loaded with a month of synthetic
+ * schedules. Run with main(): it prints the latencies of each and the
+ * legacy to new ratio of their medians. Latencies depend on the machine and
+ * cluster, and none are recorded with the change.
+ */
+public class EsScheduleQueryBenchmark {
+
+    private static final int CHANNELS = 20;
+    private static final int DAYS = 30;
+    private static final int SLOTS_PER_DAY = 48;
+    private static final int WARMUP_QUERIES = 500;
+    private static final int MEASURED_QUERIES = 2000;
+
+    private static final String PUBLISHER_KEY = Publisher.METABROADCAST.key();
+    private static final DateTime MONTH_START = new DateTime(2012, 11, 1, 0, 0, 0, 0, DateTimeZones.UTC);
+
+    public static void main(String[] args) throws Exception {
+        Node node = NodeBuilder.nodeBuilder()
+            .local(true).clusterName(UUID.randomUUID().toString())
+            .build().start();
+        try {
+            Clock clock = new TimeMachine(MONTH_START.plusDays(15));
+            EsScheduleIndexNames names = new EsScheduleIndexNames(node, clock);
+            EsScheduleIndexRegistry registry = new EsScheduleIndexRegistry(names);
+            load(node, clock, registry);
+
+            Benchmark benchmark = new Benchmark(node, names, registry);
+            for (int run = 0; run < 3; run++) {
+                long[] legacy = benchmark.time(true);
+                long[] filter = benchmark.time(false);
+                report("legacy", legacy);
+                report("filter", filter);
+                System.out.println(String.format("p50 ratio %6.2fx", median(legacy) / (double) median(filter)));
+            }
+        } finally {
+            node.close();
+        }
+    }
+
+    private static void load(Node node, Clock clock, EsScheduleIndexRegistry registry) throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(node, 1000, 5 * 1024 * 1024, 1, TimeUnit.SECONDS);
+        EsContentIndexer indexer = EsContentIndexer.builder(node)
+            .withClock(clock)
+            .withScheduleIndices(registry)
+            .withBulkAccumulator(accumulator)
+            .build();
+        indexer.startAndWait();
+        List<ListenableFuture<Void>> writes = Lists.newArrayList();
+        long id = 1;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            for (int slot = 0; slot < DAYS * SLOTS_PER_DAY; slot++) {
+                DateTime start = MONTH_START.plusMinutes(slot * 30);
+                writes.add(indexer.indexAsync(item(id++, channelUri(channel), start, start.plusMinutes(30))));
+            }
+        }
+        Futures.allAsList(writes).get(10, TimeUnit.MINUTES);
+        indexer.stopAndWait();
+        node.client().admin().indices().refresh(Requests.refreshRequest()).actionGet();
+        registry.reconcile();
+        System.out.println(String.format("Loaded %d broadcasts into %s", writes.size(), registry.existingIndices()));
+    }
+
+    private static final class Benchmark {
+
+        private final Node node;
+        private final EsScheduleIndexNames names;
+        private final EsScheduleIndexRegistry registry;
+        private final Random random = new Random(42);
+
+        public Benchmark(Node node, EsScheduleIndexNames names, EsScheduleIndexRegistry registry) {
+            this.node = node;
+            this.names = names;
+            this.registry = registry;
+        }
+
+        public long[] time(boolean legacy) {
+            for (int i = 0; i < WARMUP_QUERIES; i++) {
+                search(legacy);
+            }
+            long[] latencies = new long[MEASURED_QUERIES];
+            for (int i = 0; i < MEASURED_QUERIES; i++) {
+                latencies[i] = search(legacy);
+            }
+            Arrays.sort(latencies);
+            return latencies;
+        }
+
+        private long search(boolean legacy) {
+            String channel = channelUri(random.nextInt(CHANNELS));
+            DateTime start = MONTH_START.plusDays(random.nextInt(DAYS)).plusHours(random.nextInt(21));
+            Interval interval = new Interval(start, start.plusHours(3));
+            QueryBuilder query = legacy
+                               ? legacyScheduleQueryFor(PUBLISHER_KEY, channel, interval)
+                               : EsScheduleIndex.scheduleQueryFor(PUBLISHER_KEY, channel, interval);
+            String[] indices = Sets.intersection(registry.existingIndices(),
+                names.queryingNamesFor(interval.getStart(), interval.getEnd()))
+                .toArray(new String[0]);
+            long begin = System.nanoTime();
+            node.client().prepareSearch(indices)
+                .setTypes(TOP_LEVEL_TYPE, CHILD_TYPE)
+                .setQuery(query)
+                .addFields(ID, SCHEDULE_ENTRIES)
+                .setSize(100)
+                .execute().actionGet();
+            return System.nanoTime() - begin;
+        }
+    }
+
+    private static long median(long[] sortedNanos) {
+        return sortedNanos[sortedNanos.length / 2];
+    }
+
+    private static void report(String name, long[] sortedNanos) {
+        long total = 0;
+        for (long nanos : sortedNanos) {
+            total += nanos;
+        }
+        System.out.println(String.format("%-8s mean %6.2fms p50 %6.2fms p99 %6.2fms", name,
+            total / (double) sortedNanos.length / 1000000,
+            median(sortedNanos) / 1000000.0,
+            sortedNanos[(int) (sortedNanos.length * 0.99)] / 1000000.0));
+    }
+
+    private static QueryBuilder legacyScheduleQueryFor(String publisher, String broadcastOn, Interval scheduleInterval) {
+        DateTime looseFrom = scheduleInterval.getStart().minusHours(12);
+        DateTime looseTo = scheduleInterval.getEnd().plusHours(12);
+
+        return filteredQuery(
+            boolQuery()
+                .must(termQuery(PUBLISHER, publisher))
+                .must(nestedQuery(BROADCASTS,
+                    boolQuery()
+                        .must(termQuery(CHANNEL, broadcastOn))
+                        .must(rangeQuery(TRANSMISSION_TIME).gte(looseFrom.toDate()))
+                        .must(rangeQuery(TRANSMISSION_END_TIME).lte(looseTo.toDate()))
+                )),
+            nestedFilter(BROADCASTS, andFilter(
+                termFilter(CHANNEL, broadcastOn),
+                rangeFilter(TRANSMISSION_TIME).lt(scheduleInterval.getEnd().toDate()),
+                rangeFilter(TRANSMISSION_END_TIME).gt(scheduleInterval.getStart().toDate())
+            ))
+        );
+    }
+
+    private static String channelUri(int channel) {
+        return "http://example.com/channels/" + channel;
+    }
+
+    private static Item item(long id, String channel, DateTime start, DateTime end) {
+        Version version = new Version();
+        version.addBroadcast(new Broadcast(channel, start, end));
+        Item item = new Item("item" + id, "item" + id, Publisher.METABROADCAST);
+        item.setId(Id.valueOf(id));
+        item.addVersion(version);
+        return item;
+    }
+}
@@ -0,0 +1,106 @@
+package org.atlasapi.media.content.schedule;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.time.DateTimeZones;
+import com.metabroadcast.common.time.TimeMachine;
+
+public class ScheduleDayCacheTest {
+
+    private static final long DAY = DateTimeConstants.MILLIS_PER_DAY;
+
+    private final TimeMachine clock = new TimeMachine(new DateTime(2012, 11, 19, 0, 0, 0, 0, DateTimeZones.UTC));
+    private final ScheduleDayCache cache = new ScheduleDayCache(clock, 100, 5, TimeUnit.MINUTES);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testDayOfIsStartOfUtcDay() {
+        assertThat(ScheduleDayCache.dayOf(0), is(0L));
+        assertThat(ScheduleDayCache.dayOf(DAY - 1), is(0L));
+        assertThat(ScheduleDayCache.dayOf(DAY), is(DAY));
+        assertThat(ScheduleDayCache.dayOf(-1), is(-DAY));
+    }
+
+    @Test
+    public void testLoadsDayOnceUntilInvalidated() throws Exception {
+        cache.day("pub", "channel", DAY, loader());
+        cache.day("pub", "channel", DAY, loader());
+        assertThat(loads.get(), is(1));
+
+        cache.invalidate("pub", "channel", DAY + 10, DAY + 20);
+        cache.day("pub", "channel", DAY, loader());
+        assertThat(loads.get(), is(2));
+        assertThat(cache.stats().hitCount(), is(1L));
+        assertThat(cache.stats().missCount(), is(2L));
+    }
+
+    @Test
+    public void testInvalidatesEveryDayOverlappedByBroadcast() throws Exception {
+        cache.day("pub", "channel", 0, loader());
+        cache.day("pub", "channel", DAY, loader());
+        cache.day("pub", "channel", 2 * DAY, loader());
+
+        cache.invalidate("pub", "channel", DAY - 10, 2 * DAY);
+        assertThat(cache.invalidations(), is(2L));
+
+        cache.day("pub", "channel", 0, loader());
+        cache.day("pub", "channel", DAY, loader());
+        cache.day("pub", "channel", 2 * DAY, loader());
+        assertThat(loads.get(), is(5));
+    }
+
+    @Test
+    public void testDoesntInvalidateOtherChannels() throws Exception {
+        cache.day("pub", "channel", 0, loader());
+        cache.invalidate("pub", "other", 0, 10);
+        cache.day("pub", "channel", 0, loader());
+        assertThat(loads.get(), is(1));
+    }
+
+    @Test
+    public void testRecordsAgeOfHits() throws Exception {
+        cache.day("pub", "channel", 0, loader());
+        clock.jumpTo(clock.now().plusSeconds(10));
+        cache.day("pub", "channel", 0, loader());
+        assertThat(cache.meanHitAgeMillis(), is(10000L));
+    }
+
+    @Test
+    public void testReloadsDayLoadedBeforeWriteWasSearchable() throws Exception {
+        cache.day("pub", "channel", DAY, loader());
+        cache.invalidate("pub", "channel", DAY + 10, DAY + 20);
+        cache.day("pub", "channel", DAY, loader());
+        assertThat(loads.get(), is(2));
+
+        clock.jumpTo(clock.now().plusSeconds(1));
+        cache.day("pub", "channel", DAY, loader());
+        assertThat(loads.get(), is(2));
+
+        clock.jumpTo(clock.now().plusSeconds(1));
+        cache.day("pub", "channel", DAY, loader());
+        cache.day("pub", "channel", DAY, loader());
+        assertThat(loads.get(), is(3));
+    }
+
+    private Callable<ListenableFuture<ImmutableList<EsScheduleEntry>>> loader() {
+        return new Callable<ListenableFuture<ImmutableList<EsScheduleEntry>>>() {
+            @Override
+            public ListenableFuture<ImmutableList<EsScheduleEntry>> call() throws Exception {
+                loads.incrementAndGet();
+                return Futures.immediateFuture(ImmutableList.of(new EsScheduleEntry(1, "b1", 0, 10)));
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package org.atlasapi.media.util;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Date;
+
+import org.atlasapi.media.content.EsBroadcast;
+import org.atlasapi.media.content.EsContent;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class DocumentDigestsTest {
+
+    private final DocumentDigests digests = new DocumentDigests(100);
+    private final IndexRequest request = Requests.indexRequest("index").type("type").id("1");
+
+    @Test
+    public void testDetectsUnchangedDocument() throws Exception {
+        assertThat(digests.unchanged(request, content("title", 10)), is(false));
+        digests.written(request);
+        assertThat(digests.unchanged(request, content("title", 10)), is(true));
+        assertThat(digests.skippedWrites(), is(1L));
+    }
+
+    @Test
+    public void testDetectsChangedDocument() throws Exception {
+        assertThat(digests.unchanged(request, content("title", 10)), is(false));
+        assertThat(digests.unchanged(request, content("title", 20)), is(false));
+        assertThat(digests.skippedWrites(), is(0L));
+    }
+
+    @Test
+    public void testInvalidatedDocumentIsWrittenAgain() throws Exception {
+        assertThat(digests.unchanged(request, content("title", 10)), is(false));
+        digests.written(request);
+        digests.invalidate(request);
+        assertThat(digests.unchanged(request, content("title", 10)), is(false));
+    }
+
+    @Test
+    public void testConcurrentWriteIsNotSkippedUntilFirstSucceeds() throws Exception {
+        IndexRequest concurrent = Requests.indexRequest("index").type("type").id("1");
+        assertThat(digests.unchanged(request, content("title", 10)), is(false));
+        assertThat(digests.unchanged(concurrent, content("title", 10)), is(false));
+        digests.written(request);
+        assertThat(digests.unchanged(Requests.indexRequest("index").type("type").id("1"), 
+            content("title", 10)), is(true));
+    }
+
+    @Test
+    public void testWriteAfterFailedWriteIsNotSkipped() throws Exception {
+        IndexRequest retry = Requests.indexRequest("index").type("type").id("1");
+        assertThat(digests.unchanged(request, content("title", 10)), is(false));
+        digests.invalidate(request);
+        digests.written(request);
+        assertThat(digests.unchanged(retry, content("title", 10)), is(false));
+        assertThat(digests.skippedWrites(), is(0L));
+    }
+
+    private BytesReference content(String title, long broadcastTime) throws Exception {
+        return new EsContent()
+            .title(title)
+            .broadcasts(ImmutableList.of(new EsBroadcast()
+                .channel("channel")
+                .transmissionTime(new Date(broadcastTime))))
+            .toSource()
+            .bytes();
+    }
+}
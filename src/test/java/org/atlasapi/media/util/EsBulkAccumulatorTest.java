@@ -0,0 +1,233 @@
+package org.atlasapi.media.util;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.node.Node;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class EsBulkAccumulatorTest {
+
+    private final Node esClient = mock(Node.class);
+    private final Client client = mock(Client.class);
+    private final List<BulkRequest> bulks = Lists.newCopyOnWriteArrayList();
+    private final List<ActionListener<BulkResponse>> listeners = Lists.newCopyOnWriteArrayList();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        when(esClient.client()).thenReturn(client);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                bulks.add((BulkRequest) invocation.getArguments()[0]);
+                listeners.add((ActionListener<BulkResponse>) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+    }
+
+    @Test
+    public void testFlushesWhenMaxActionsReached() throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 3, 1024 * 1024, 1, TimeUnit.HOURS);
+
+        accumulator.add(ImmutableList.of(request("1"), request("2")));
+        assertThat(bulks.size(), is(0));
+
+        accumulator.add(ImmutableList.of(request("3")));
+        assertThat(bulks.size(), is(1));
+        assertThat(bulks.get(0).numberOfActions(), is(3));
+    }
+
+    @Test
+    public void testFlushesWhenMaxBytesReached() throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 1000, 500, 1, TimeUnit.HOURS);
+
+        accumulator.add(ImmutableList.of(request("1")));
+        assertThat(bulks.size(), is(0));
+
+        accumulator.add(ImmutableList.of(request("2", Strings.repeat("a", 500))));
+        assertThat(bulks.size(), is(1));
+        assertThat(bulks.get(0).numberOfActions(), is(2));
+    }
+
+    @Test
+    public void testFlushesAfterMaxLatency() throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 1000, 1024 * 1024, 10, TimeUnit.MILLISECONDS);
+        accumulator.startAndWait();
+
+        ListenableFuture<Void> result = accumulator.add(ImmutableList.of(request("1")));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bulks.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(bulks.size(), is(1));
+
+        respond(0);
+        result.get();
+        accumulator.stopAndWait();
+    }
+
+    @Test
+    public void testFailsOnlyCallersWhoseRequestsFailed() throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 1000, 1024 * 1024, 1, TimeUnit.HOURS);
+
+        ListenableFuture<Void> first = accumulator.add(ImmutableList.of(request("1"), request("2")));
+        ListenableFuture<Void> second = accumulator.add(ImmutableList.of(request("3")));
+        ListenableFuture<Void> third = accumulator.add(ImmutableList.of(request("4")));
+        accumulator.flush();
+        respond(0, 2);
+
+        first.get();
+        third.get();
+        assertFailedWith(second, EsPersistenceException.class);
+    }
+
+    @Test
+    public void testFailsCallerWhoseDeleteFailed() throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 1000, 1024 * 1024, 1, TimeUnit.HOURS);
+
+        ListenableFuture<Void> first = accumulator.add(ImmutableList.of(request("1")));
+        ListenableFuture<Void> second = accumulator.add(
+            ImmutableList.of(Requests.deleteRequest("index").type("type").id("2")), 
+            ImmutableList.of(request("3")));
+        accumulator.flush();
+        assertThat(bulks.get(0).requests().get(1), is(instanceOf(DeleteRequest.class)));
+        respond(0, 1);
+
+        first.get();
+        assertFailedWith(second, EsPersistenceException.class);
+    }
+
+    @Test
+    public void testFailsCallersWhenBulkFails() throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 1000, 1024 * 1024, 1, TimeUnit.HOURS);
+
+        ListenableFuture<Void> result = accumulator.add(ImmutableList.of(request("1")));
+        accumulator.flush();
+        listeners.get(0).onFailure(new ElasticSearchException("failed"));
+
+        assertFailedWith(result, ElasticSearchException.class);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailsCallersWhenSendingBulkThrows() throws Exception {
+        doThrow(new ElasticSearchException("failed"))
+            .when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 1000, 1024 * 1024, 1, TimeUnit.HOURS);
+
+        ListenableFuture<Void> result = accumulator.add(ImmutableList.of(request("1")));
+        accumulator.flush();
+
+        assertFailedWith(result, ElasticSearchException.class);
+    }
+
+    @Test
+    public void testSendsOneBulkAtATimeByDefault() throws Exception {
+        final EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 1, 1024 * 1024, 1, TimeUnit.HOURS);
+
+        accumulator.add(ImmutableList.of(request("1")));
+        assertThat(bulks.size(), is(1));
+
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accumulator.add(ImmutableList.of(request("2")));
+            }
+        });
+        second.start();
+        second.join(200);
+        assertThat(bulks.size(), is(1));
+
+        respond(0);
+        second.join(5000);
+        assertThat(bulks.size(), is(2));
+        assertThat(((IndexRequest) bulks.get(1).requests().get(0)).id(), is("2"));
+    }
+
+    @Test
+    public void testDrainWaitsForPendingRequestsToComplete() throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 1000, 1024 * 1024, 1, TimeUnit.HOURS);
+
+        ListenableFuture<Void> result = accumulator.add(ImmutableList.of(request("1")));
+        assertThat(accumulator.drain(100, TimeUnit.MILLISECONDS), is(false));
+        assertThat(bulks.size(), is(1));
+
+        respond(0);
+        assertThat(accumulator.drain(100, TimeUnit.MILLISECONDS), is(true));
+        result.get();
+    }
+
+    @Test
+    public void testRejectsRequestsAddedAfterShutdown() throws Exception {
+        EsBulkAccumulator accumulator = new EsBulkAccumulator(esClient, 1000, 1024 * 1024, 1, TimeUnit.HOURS);
+        accumulator.startAndWait();
+        accumulator.stopAndWait();
+
+        assertFailedWith(accumulator.add(ImmutableList.of(request("1"))), IllegalStateException.class);
+        assertThat(bulks.size(), is(0));
+    }
+
+    private void respond(int bulk, int... failedItems) {
+        BulkRequest request = bulks.get(bulk);
+        BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = mock(BulkItemResponse.class);
+        }
+        for (int failed : failedItems) {
+            when(items[failed].isFailed()).thenReturn(true);
+            when(items[failed].getFailureMessage()).thenReturn("failed");
+        }
+        BulkResponse response = mock(BulkResponse.class);
+        when(response.getItems()).thenReturn(items);
+        listeners.get(bulk).onResponse(response);
+    }
+
+    private void assertFailedWith(ListenableFuture<Void> result, Class<? extends Throwable> cause)
+            throws InterruptedException {
+        try {
+            result.get();
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(cause)));
+        }
+    }
+
+    private IndexRequest request(String id) {
+        return request(id, "title");
+    }
+
+    private IndexRequest request(String id, String title) {
+        return Requests.indexRequest("index").type("type").id(id)
+            .source("{\"title\":\"" + title + "\"}");
+    }
+}
@@ -0,0 +1,113 @@
+package org.atlasapi.media.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.atlasapi.media.content.EsBroadcast;
+import org.atlasapi.media.content.EsContent;
+import org.atlasapi.media.content.EsLocation;
+import org.atlasapi.media.content.EsTopicMapping;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.media.topic.EsTopic;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+public class EsObjectTest {
+
+    @Test
+    public void testEncodesContentAsItsSourceMap() throws Exception {
+        EsContent content = new EsContent()
+            .id(1)
+            .uri("uri")
+            .title("title")
+            .flattenedTitle(null)
+            .publisher(Publisher.METABROADCAST.key())
+            .broadcasts(ImmutableList.of(
+                new EsBroadcast()
+                    .channel("channel")
+                    .transmissionTime(new Date(10))
+                    .transmissionEndTime(new Date(20))
+                    .transmissionTimeInMillis(10L)
+                    .repeat(false),
+                new EsBroadcast()
+                    .id("b2")
+                    .channel("channel")
+                    .transmissionTime(new Date(30))
+                    .transmissionEndTime(new Date(40))))
+            .locations(ImmutableList.of(new EsLocation()
+                .availabilityTime(new Date(50))
+                .availabilityEndTime(new Date(60))))
+            .topics(ImmutableList.of(new EsTopicMapping().id(1L), new EsTopicMapping().id(2L)))
+            .transmissionTimes(ImmutableList.of(10L, 30L))
+            .hasChildren(false);
+
+        Map<String, Object> encoded = decode(content.toSourceBytes());
+        assertEquals(decode(mapEncoding(content)), encoded);
+
+        assertFalse(encoded.containsKey(EsContent.FLATTENED_TITLE));
+        Map<?, ?> broadcast = (Map<?, ?>) ((List<?>) encoded.get(EsContent.BROADCASTS)).get(0);
+        assertEquals("1970-01-01T00:00:00.010Z", broadcast.get(EsBroadcast.TRANSMISSION_TIME));
+        assertFalse(broadcast.containsKey(EsBroadcast.ID));
+        Map<?, ?> location = (Map<?, ?>) ((List<?>) encoded.get(EsContent.LOCATIONS)).get(0);
+        assertEquals("1970-01-01T00:00:00.060Z", location.get(EsLocation.AVAILABILITY_END_TIME));
+        assertEquals(2, ((List<?>) encoded.get(EsContent.TOPICS)).size());
+    }
+
+    @Test
+    public void testEncodesTopicAsItsSourceMap() throws Exception {
+        EsTopic topic = new EsTopic()
+            .id(1)
+            .source(Publisher.METABROADCAST)
+            .title("topic")
+            .description(null)
+            .aliases(ImmutableList.of(
+                new EsAlias().namespace("ns1").value("v1"),
+                new EsAlias().namespace("ns2").value("v2")));
+
+        Map<String, Object> encoded = decode(topic.toSourceBytes());
+        assertEquals(decode(mapEncoding(topic)), encoded);
+
+        assertFalse(encoded.containsKey(EsTopic.DESCRIPTION));
+        Map<?, ?> alias = (Map<?, ?>) ((List<?>) encoded.get(EsTopic.ALIASES)).get(1);
+        assertEquals("ns2", alias.get(EsAlias.NAMESPACE));
+        assertEquals("v2", alias.get(EsAlias.VALUE));
+    }
+
+    @Test
+    public void testReusedBufferDoesntLeakBytesBetweenDocuments() throws Exception {
+        List<EsContent> documents = ImmutableList.of(
+            new EsContent().id(1).title(Strings.repeat("a", 10000)),
+            new EsContent().id(2).title("b"),
+            new EsContent().id(3).title(Strings.repeat("c", 300 * 1024)),
+            new EsContent().id(4).title(Strings.repeat("d", 100)),
+            new EsContent().id(5)
+        );
+        for (EsContent document : documents) {
+            byte[] encoded = document.toSourceBytes();
+            assertArrayEquals(document.toSource().bytes().toBytes(), encoded);
+            Map<String, Object> decoded = decode(encoded);
+            assertEquals(document.toMap().keySet(), decoded.keySet());
+            assertEquals(document.toMap().get(EsContent.TITLE), decoded.get(EsContent.TITLE));
+        }
+    }
+
+    /* How documents were encoded before they were written straight to
+     * XContent: as the source map of the object.
+     */
+    private byte[] mapEncoding(EsObject object) throws Exception {
+        return XContentFactory.jsonBuilder().map(object.toMap()).bytes().toBytes();
+    }
+
+    private Map<String, Object> decode(byte[] source) {
+        return XContentHelper.convertToMap(source, false).v2();
+    }
+}